@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) The Ambient Dynamix Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.ocean;
+
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stand-in for sendContextEvent that lets a benchmark thread wait for the snapshot of its own request.
+ *
+ * @author Nirandika Wanigasekara
+ */
+class BlockingSnapshotSink implements SnapshotEngine.SnapshotSink {
+    private final ConcurrentHashMap<UUID, BlockingQueue<MyContextSnapShot>> pending =
+            new ConcurrentHashMap<UUID, BlockingQueue<MyContextSnapShot>>();
+
+    /**
+     * Registers a request; must be called before the request is handed to the engine.
+     */
+    void expect(UUID requestId) {
+        pending.put(requestId, new ArrayBlockingQueue<MyContextSnapShot>(1));
+    }
+
+    /**
+     * Waits for the snapshot of the request.
+     *
+     * @return The snapshot, or null if none arrived within the timeout
+     */
+    MyContextSnapShot await(UUID requestId, long timeout) throws InterruptedException {
+        BlockingQueue<MyContextSnapShot> queue = pending.get(requestId);
+        try {
+            return queue.poll(timeout, TimeUnit.MILLISECONDS);
+        } finally {
+            pending.remove(requestId);
+        }
+    }
+
+    @Override
+    public void sendSnapshot(UUID requestId, MyContextSnapShot snapShot) {
+        BlockingQueue<MyContextSnapShot> queue = pending.get(requestId);
+        if (queue != null)
+            queue.offer(snapShot);
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) The Ambient Dynamix Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.ocean;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Local stand-in for the Dynamix ContextHandler, answering the context requests of an oceanRuntime. Each request is
+ * answered on a responder thread after the latency of the target FakePlugin, either with a ContextResult or, at the
+ * plugin's failure rate, with a failure, just like an IContextRequestCallback would be called back over binder; the
+ * answer then goes through the runtime's callback workers and result decoding.
+ *
+ * @author Nirandika Wanigasekara
+ */
+class FakeContextHandler implements oceanRuntime.LocalDynamix {
+    private final FakeDynamix dynamix;
+    private final Map<String, FakePlugin> plugins = new HashMap<String, FakePlugin>();
+    private final ScheduledExecutorService responders;
+
+    FakeContextHandler(FakeDynamix dynamix, ScheduledExecutorService responders) {
+        this.dynamix = dynamix;
+        for (FakePlugin plugin : dynamix.getInstalledPlugins())
+            plugins.put(plugin.getPluginId(), plugin);
+        this.responders = responders;
+    }
+
+    @Override
+    public PluginRoutingTable getRoutingTable() {
+        return dynamix.buildRoutingTable();
+    }
+
+    @Override
+    public void contextRequest(String pluginId, final String contextType, final oceanRuntime.ContextResponse response) {
+        final FakePlugin plugin = plugins.get(pluginId);
+        responders.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (plugin == null)
+                    response.onFailure("Plugin not installed", 0);
+                else if (plugin.nextFails())
+                    response.onFailure("Simulated failure", 0);
+                else
+                    response.onSuccess(plugin.newContextResult(contextType));
+            }
+        }, plugin != null ? plugin.getLatency() : 0, TimeUnit.MILLISECONDS);
+    }
+}
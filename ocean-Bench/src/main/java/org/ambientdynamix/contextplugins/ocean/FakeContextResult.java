@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) The Ambient Dynamix Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.ocean;
+
+import java.util.Date;
+import java.util.Set;
+
+import org.ambientdynamix.api.application.ContextResult;
+import org.ambientdynamix.api.application.IContextInfo;
+
+/**
+ * A ContextResult as a FakePlugin would send it through IContextRequestCallback.onSuccess, carrying a FakeLuxInfo so
+ * that ocean decodes its fields.
+ *
+ * @author Nirandika Wanigasekara
+ */
+class FakeContextResult extends ContextResult {
+    private final String contextType;
+    private final long timeStamp;
+    private final long expireTime;
+    private final String payload;
+    private final FakeLuxInfo info;
+
+    /**
+     * @param expireTime The time the result expires (ms since epoch) or 0 if it does not expire
+     */
+    FakeContextResult(String contextType, long timeStamp, long expireTime, String payload, FakeLuxInfo info) {
+        this.contextType = contextType;
+        this.timeStamp = timeStamp;
+        this.expireTime = expireTime;
+        this.payload = payload;
+        this.info = info;
+    }
+
+    @Override
+    public String getContextType() {
+        return contextType;
+    }
+
+    @Override
+    public Date getTimeStamp() {
+        return new Date(timeStamp);
+    }
+
+    @Override
+    public boolean expires() {
+        return expireTime != 0;
+    }
+
+    @Override
+    public Date getExpireTime() {
+        return new Date(expireTime);
+    }
+
+    @Override
+    public Set<String> getStringRepresentationFormats() {
+        return info.getStringRepresentationFormats();
+    }
+
+    @Override
+    public String getStringRepresentation(String format) {
+        return payload;
+    }
+
+    @Override
+    public boolean hasIContextInfo() {
+        return true;
+    }
+
+    @Override
+    public IContextInfo getIContextInfo() {
+        return info;
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) The Ambient Dynamix Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.ocean;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Local stand-in for the installed-plugin side of the DynamixFacade: a fixed set of FakePlugins, from which the
+ * routing table is built the same way oceanRuntime builds it from getInstalledContextPluginInformation().
+ *
+ * @author Nirandika Wanigasekara
+ */
+class FakeDynamix {
+    private final List<FakePlugin> plugins = new ArrayList<FakePlugin>();
+
+    /**
+     * Creates plugins with identical behaviour, each supporting the light sensor's context type, whose results ocean
+     * decodes.
+     */
+    FakeDynamix(int pluginCount, long latency, double failureRate, int payloadSize, long resultLifetime) {
+        for (int i = 0; i < pluginCount; i++) {
+            String pluginId = "org.ambientdynamix.contextplugins.fake" + i;
+            List<String> contextTypes = Collections.singletonList(ResultDecoderRegistry.LUX_VALUE_TYPE);
+            plugins.add(new FakePlugin(pluginId, contextTypes, latency, failureRate, payloadSize, resultLifetime));
+        }
+    }
+
+    List<FakePlugin> getInstalledPlugins() {
+        return plugins;
+    }
+
+    FakePlugin getPlugin(String pluginId) {
+        for (FakePlugin plugin : plugins) {
+            if (plugin.getPluginId().equals(pluginId))
+                return plugin;
+        }
+        return null;
+    }
+
+    PluginRoutingTable buildRoutingTable() {
+        PluginRoutingTable table = PluginRoutingTable.EMPTY;
+        for (FakePlugin plugin : plugins)
+            table = table.withPlugin(plugin.getPluginId(), plugin.getSupportedContextTypes());
+        return table;
+    }
+}
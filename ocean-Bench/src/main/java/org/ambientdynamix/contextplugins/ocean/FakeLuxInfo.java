@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) The Ambient Dynamix Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.ocean;
+
+import java.util.Collections;
+import java.util.Set;
+
+import android.os.Parcel;
+import org.ambientdynamix.api.application.IContextInfo;
+
+/**
+ * The IContextInfo of a FakePlugin's results, shaped like the light sensor plugin's so that ocean's bundled decoder
+ * reads its lux value.
+ *
+ * @author Nirandika Wanigasekara
+ */
+class FakeLuxInfo implements IContextInfo {
+    private static final Set<String> FORMATS = Collections.singleton("text/plain");
+    private final double luxValue;
+    private final String payload;
+
+    FakeLuxInfo(double luxValue, String payload) {
+        this.luxValue = luxValue;
+        this.payload = payload;
+    }
+
+    public double getLuxValue() {
+        return luxValue;
+    }
+
+    @Override
+    public String getContextType() {
+        return ResultDecoderRegistry.LUX_VALUE_TYPE;
+    }
+
+    @Override
+    public String getImplementingClassname() {
+        return getClass().getName();
+    }
+
+    @Override
+    public Set<String> getStringRepresentationFormats() {
+        return FORMATS;
+    }
+
+    @Override
+    public String getStringRepresentation(String format) {
+        return payload;
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel out, int flags) {
+    }
+}
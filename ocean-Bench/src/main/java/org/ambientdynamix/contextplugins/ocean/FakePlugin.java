@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) The Ambient Dynamix Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.ocean;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.ambientdynamix.api.application.ContextResult;
+
+/**
+ * A context plugin of the local Dynamix stand-in with configurable latency, failure rate and payload size.
+ *
+ * @author Nirandika Wanigasekara
+ */
+class FakePlugin {
+    private final String pluginId;
+    private final List<String> contextTypes;
+    private final long latency;
+    private final double failureRate;
+    private final long resultLifetime;
+    private final String payload;
+    private final Random random = new Random(42);
+
+    /**
+     * @param pluginId       The plugin id
+     * @param contextTypes   The supported context types
+     * @param latency        The time (ms) between a request and its response
+     * @param failureRate    The probability (0..1) that a request fails
+     * @param payloadSize    The number of characters in each result
+     * @param resultLifetime The lifetime (ms) of each result, or 0 if results do not expire
+     */
+    FakePlugin(String pluginId, List<String> contextTypes, long latency, double failureRate, int payloadSize,
+               long resultLifetime) {
+        this.pluginId = pluginId;
+        this.contextTypes = contextTypes;
+        this.latency = latency;
+        this.failureRate = failureRate;
+        this.resultLifetime = resultLifetime;
+        char[] chars = new char[payloadSize];
+        Arrays.fill(chars, 'x');
+        this.payload = new String(chars);
+    }
+
+    String getPluginId() {
+        return pluginId;
+    }
+
+    List<String> getSupportedContextTypes() {
+        return contextTypes;
+    }
+
+    long getLatency() {
+        return latency;
+    }
+
+    /**
+     * Decides whether the next request fails.
+     */
+    boolean nextFails() {
+        synchronized (random) {
+            return random.nextDouble() < failureRate;
+        }
+    }
+
+    /**
+     * Produces a result for the context type as ocean holds it once received, e.g. from a ContextListener.
+     */
+    SourceResult newResult(String contextType) {
+        long now = System.currentTimeMillis();
+        return new SourceResult(pluginId, contextType, now, resultLifetime > 0 ? now + resultLifetime : 0, payload);
+    }
+
+    /**
+     * Produces a result for the context type as the ContextResult the plugin would send through
+     * IContextRequestCallback.onSuccess.
+     */
+    ContextResult newContextResult(String contextType) {
+        long now = System.currentTimeMillis();
+        double lux;
+        synchronized (random) {
+            lux = random.nextDouble() * 1000;
+        }
+        return new FakeContextResult(contextType, now, resultLifetime > 0 ? now + resultLifetime : 0, payload,
+                new FakeLuxInfo(lux, payload));
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) The Ambient Dynamix Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.ocean;
+
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Ingestion of pushed results, i.e. the work oceanRuntime's ContextListener hands to the SnapshotEngine for every
+ * event of an AUTO_REACTIVE plugin. Run with several threads (-t) to measure concurrent binder callbacks.
+ *
+ * @author Nirandika Wanigasekara
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ListenerIngestBenchmark {
+
+    @Param({"16"})
+    public int plugins;
+
+    @Param({"64", "1024"})
+    public int payloadSize;
+
+    private ScheduledExecutorService executor;
+    private SnapshotEngine engine;
+    private SourceResult[] events;
+
+    @Setup
+    public void setUp() {
+        StdoutLogPrinter.install();
+        FakeDynamix dynamix = new FakeDynamix(plugins, 0, 0, payloadSize, 0);
+        executor = Executors.newSingleThreadScheduledExecutor();
+        // Pushes are only stored; nothing is ever requested
+        engine = new SnapshotEngine(new SnapshotEngine.ContextDispatcher() {
+            @Override
+            public boolean isReady() {
+                return false;
+            }
+
+            @Override
+            public void contextRequest(PluginRoute route, SnapshotEngine.ResultCallback callback) {
+                callback.onFailure("Not connected", 0);
+            }
+        }, new SnapshotEngine.SnapshotSink() {
+            @Override
+            public void sendSnapshot(UUID requestId, MyContextSnapShot snapShot) {
+            }
+        }, executor, 64, 5000, 300000);
+        engine.setRoutingTable(dynamix.buildRoutingTable());
+        events = new SourceResult[plugins];
+        for (int i = 0; i < plugins; i++) {
+            FakePlugin plugin = dynamix.getInstalledPlugins().get(i);
+            events[i] = plugin.newResult(plugin.getSupportedContextTypes().get(0));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        engine.shutdown();
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public void ingest(ThreadIndex index) {
+        engine.onPushed(events[index.next(events.length)]);
+    }
+
+    /**
+     * Per-thread position in the event array, so threads do not contend on a shared counter.
+     */
+    @State(Scope.Thread)
+    public static class ThreadIndex {
+        private int position;
+
+        int next(int length) {
+            position = position + 1 == length ? 0 : position + 1;
+            return position;
+        }
+    }
+}
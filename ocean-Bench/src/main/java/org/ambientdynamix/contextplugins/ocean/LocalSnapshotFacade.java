@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) The Ambient Dynamix Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.ocean;
+
+import java.util.Collections;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.ambientdynamix.api.contextplugin.PowerScheme;
+
+/**
+ * Runs ocean's SnapshotEngine on a plain JVM for the SnapshotLoadGenerator, in place of Dynamix and the ocean plugin:
+ * every request is a full snapshot request handed to the engine, and completes when the engine delivers the snapshot.
+ * The engine pulls fake sources through a local ContextDispatcher, which answers each context request after a service
+ * time of a fixed part plus an exponentially distributed jitter, failing a given share of them. Failed sources show
+ * up as skipped sources and in the latency, not as failed requests, just as they do on a device.
+ *
+ * @author Nirandika Wanigasekara
+ */
+class LocalSnapshotFacade implements SnapshotLoadGenerator.RequestFacade {
+    // Longest time (ms) a snapshot waits for its sources, and between two background refreshes of a source
+    private static final long SNAPSHOT_DEADLINE = 5000;
+    private static final long MAX_STALENESS = 300000;
+    private static final int RESULT_CACHE_SIZE = 64;
+
+    private final ScheduledExecutorService engineExecutor = Executors.newSingleThreadScheduledExecutor();
+    private final ScheduledExecutorService sources = Executors.newScheduledThreadPool(2);
+    private final ConcurrentHashMap<UUID, SnapshotLoadGenerator.ResponseCallback> pending =
+            new ConcurrentHashMap<UUID, SnapshotLoadGenerator.ResponseCallback>();
+    private final Random random = new Random();
+    private final long serviceTime;
+    private final double jitter;
+    private final double failureRate;
+    private final SnapshotEngine engine;
+
+    /**
+     * @param sourceCount The number of fake sources, each a plugin with one context type
+     * @param serviceTime The fixed part of the service time of a source (ms)
+     * @param jitter      The mean of the exponential part of the service time of a source (ms)
+     * @param failureRate The share of context requests that fail (0..1)
+     */
+    LocalSnapshotFacade(int sourceCount, long serviceTime, double jitter, double failureRate) {
+        this.serviceTime = serviceTime;
+        this.jitter = jitter;
+        this.failureRate = failureRate;
+        StdoutLogPrinter.install();
+        OceanLog.setLevel(OceanLog.ERROR);
+        engine = new SnapshotEngine(dispatcher, new SnapshotEngine.SnapshotSink() {
+            @Override
+            public void sendSnapshot(UUID requestId, MyContextSnapShot snapShot) {
+                SnapshotLoadGenerator.ResponseCallback callback = pending.remove(requestId);
+                if (callback != null)
+                    callback.onSuccess();
+            }
+        }, engineExecutor, RESULT_CACHE_SIZE, SNAPSHOT_DEADLINE, MAX_STALENESS);
+        engine.setPowerScheme(PowerScheme.BALANCED);
+        PluginRoutingTable table = PluginRoutingTable.EMPTY;
+        for (int i = 0; i < sourceCount; i++) {
+            String pluginId = "org.ambientdynamix.contextplugins.local" + i;
+            table = table.withPlugin(pluginId, Collections.singletonList(pluginId + ".value"));
+        }
+        engine.setRoutingTable(table);
+    }
+
+    @Override
+    public void request(PluginInvoker.PluginInvocation invocation, SnapshotLoadGenerator.ResponseCallback callback) {
+        UUID requestId = UUID.randomUUID();
+        pending.put(requestId, callback);
+        engine.requestSnapshot(new SnapshotRequest(requestId, SnapshotRequest.FULL));
+    }
+
+    void shutdown() {
+        engine.shutdown();
+        sources.shutdownNow();
+        engineExecutor.shutdownNow();
+    }
+
+    /*
+     * The fake sources: answers every context request on a source thread after its service time.
+     */
+    private final SnapshotEngine.ContextDispatcher dispatcher = new SnapshotEngine.ContextDispatcher() {
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void contextRequest(final PluginRoute route, final SnapshotEngine.ResultCallback callback) {
+            final boolean fail;
+            long delay;
+            synchronized (random) {
+                fail = random.nextDouble() < failureRate;
+                delay = TimeUnit.MILLISECONDS.toMicros(serviceTime)
+                        + (long) (-Math.log(1 - random.nextDouble()) * jitter * 1000);
+            }
+            sources.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (fail) {
+                        callback.onFailure("Simulated failure", 0);
+                    } else {
+                        long now = System.currentTimeMillis();
+                        callback.onSuccess(new SourceResult(route.getPluginId(), route.getContextType(), now, 0,
+                                "value at " + now));
+                    }
+                }
+            }, delay, TimeUnit.MICROSECONDS);
+        }
+    };
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) The Ambient Dynamix Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.ocean;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * MyContextSnapShot round trips through its binary layout. writeToParcel and the Parcel constructor only move this
+ * byte array in and out of the Parcel, which is not available on a plain JVM, so the encode and decode steps measured
+ * here are the (de)serialization cost of an IPC round trip minus the Parcel copy.
+ *
+ * @author Nirandika Wanigasekara
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SnapShotCodecBenchmark {
+
+    @Param({"8", "64"})
+    public int entries;
+
+    @Param({"64", "1024"})
+    public int payloadSize;
+
+    private List<SnapShotEntry> snapShotEntries;
+    private byte[] encoded;
+
+    @Setup
+    public void setUp() {
+        char[] chars = new char[payloadSize];
+        Arrays.fill(chars, 'x');
+        String payload = new String(chars);
+        long now = System.currentTimeMillis();
+        snapShotEntries = new ArrayList<SnapShotEntry>(entries);
+        for (int i = 0; i < entries; i++) {
+            // Four plugins with several context types each, so the string table is exercised
+            String pluginId = "org.ambientdynamix.contextplugins.fake" + (i % 4);
+            snapShotEntries.add(new SnapShotEntry(pluginId, pluginId + ".type" + i, now, now + 60000, payload));
+        }
+        encoded = new MyContextSnapShot(snapShotEntries, 1, false).getEncoded();
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return new MyContextSnapShot(snapShotEntries, 1, false).getEncoded();
+    }
+
+    @Benchmark
+    public MyContextSnapShot decode() {
+        return new MyContextSnapShot(encoded);
+    }
+
+    @Benchmark
+    public MyContextSnapShot roundTrip() {
+        return new MyContextSnapShot(new MyContextSnapShot(snapShotEntries, 1, false).getEncoded());
+    }
+}
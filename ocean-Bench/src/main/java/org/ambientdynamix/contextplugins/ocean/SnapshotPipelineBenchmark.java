@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) The Ambient Dynamix Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.ocean;
+
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.ambientdynamix.api.contextplugin.ContextPluginSettings;
+import org.ambientdynamix.api.contextplugin.PowerScheme;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End-to-end snapshot requests through oceanRuntime.handleContextRequest, from the request to the delivered
+ * MyContextSnapShot, against FakePlugins answering through a FakeContextHandler in place of Dynamix. Their results
+ * take the runtime's path for binder callbacks: the CallbackExecutor workers and result decoding. Run with several
+ * threads (-t) to measure concurrent clients. SampleTime mode reports the latency percentiles.
+ *
+ * @author Nirandika Wanigasekara
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SnapshotPipelineBenchmark {
+    // Upper bound for a single snapshot, well above the engine deadline
+    private static final long AWAIT_TIMEOUT = 10000;
+
+    @Param({"4", "16"})
+    public int plugins;
+
+    @Param({"0", "2"})
+    public long latencyMs;
+
+    @Param({"0.0", "0.05"})
+    public double failureRate;
+
+    @Param({"64", "1024"})
+    public int payloadSize;
+
+    // 0: results never expire and are never cached, so every snapshot pulls every plugin
+    @Param({"0"})
+    public long resultLifetimeMs;
+
+    @Param({"5000"})
+    public long deadlineMs;
+
+    private ScheduledExecutorService responders;
+    private BlockingSnapshotSink sink;
+    private oceanRuntime runtime;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        StdoutLogPrinter.install();
+        FakeDynamix dynamix = new FakeDynamix(plugins, latencyMs, failureRate, payloadSize, resultLifetimeMs);
+        responders = Executors.newScheduledThreadPool(4);
+        sink = new BlockingSnapshotSink();
+        runtime = new oceanRuntime();
+        runtime.useLocalDynamix(new FakeContextHandler(dynamix, responders), sink);
+        ContextPluginSettings settings = new ContextPluginSettings();
+        settings.put(oceanRuntime.SNAPSHOT_DEADLINE_SETTING, String.valueOf(deadlineMs));
+        // The history needs the Android context for its files
+        settings.put(oceanRuntime.HISTORY_SEGMENTS_SETTING, "0");
+        // Every simulated failure would otherwise print a warning while being measured
+        settings.put(OceanLog.LOG_LEVEL_SETTING, "ERROR");
+        runtime.init(PowerScheme.BALANCED, settings);
+        runtime.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        runtime.destroy();
+        responders.shutdownNow();
+    }
+
+    @Benchmark
+    public MyContextSnapShot snapshot() throws InterruptedException {
+        UUID requestId = UUID.randomUUID();
+        sink.expect(requestId);
+        runtime.handleContextRequest(requestId, MyContextSnapShot.CONTEXT_TYPE);
+        MyContextSnapShot snapShot = sink.await(requestId, AWAIT_TIMEOUT);
+        if (snapShot == null)
+            throw new IllegalStateException("No snapshot for " + requestId);
+        return snapShot;
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) The Ambient Dynamix Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.ocean;
+
+/**
+ * Runs the TestApp's SnapshotLoadGenerator against ocean's SnapshotEngine through a LocalSnapshotFacade on a plain
+ * JVM. This module compiles the plain-Java load generator sources of ocean-TestApp next to its own, so neither the
+ * facade nor ocean-Core ever reach the apk:
+ *
+ * <pre>
+ * mvn -Pbench package
+ * java -cp ocean-Bench/target/benchmarks.jar org.ambientdynamix.contextplugins.ocean.SnapshotSoak 100 8 10
+ * </pre>
+ *
+ * Arguments, all optional: rate (requests/s, default 100), concurrency (default 8), duration (s, default 10),
+ * service time of a source (ms, default 5), service time jitter (mean ms, default 2), failure rate of a source
+ * (0..1, default 0), number of sources (default 4).
+ *
+ * @author Nirandika Wanigasekara
+ */
+public class SnapshotSoak {
+    // Longest time (ms) the run waits for the requests still outstanding at its end
+    private static final long DRAIN_TIMEOUT = 10000;
+
+    public static void main(String[] args) throws InterruptedException {
+        double rate = args.length > 0 ? Double.parseDouble(args[0]) : 100;
+        int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        long duration = args.length > 2 ? Long.parseLong(args[2]) * 1000 : 10000;
+        long serviceTime = args.length > 3 ? Long.parseLong(args[3]) : 5;
+        double jitter = args.length > 4 ? Double.parseDouble(args[4]) : 2;
+        double failureRate = args.length > 5 ? Double.parseDouble(args[5]) : 0;
+        int sources = args.length > 6 ? Integer.parseInt(args[6]) : 4;
+        LocalSnapshotFacade facade = new LocalSnapshotFacade(sources, serviceTime, jitter, failureRate);
+        try {
+            SnapshotLoadGenerator.Report report = new SnapshotLoadGenerator(
+                    new PluginInvoker().getPluginInvocations(), facade, rate, concurrency, duration).run(DRAIN_TIMEOUT);
+            System.out.println(report);
+        } finally {
+            facade.shutdown();
+        }
+    }
+}
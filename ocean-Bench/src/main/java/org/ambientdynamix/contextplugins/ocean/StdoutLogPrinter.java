@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) The Ambient Dynamix Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.ocean;
+
+/**
+ * Sends ocean's log messages to stdout: on a plain JVM the Android Log class of the android jar only throws.
+ *
+ * @author Nirandika Wanigasekara
+ */
+class StdoutLogPrinter implements OceanLog.Printer {
+    private static final String LEVELS = "??VDIWE";
+
+    static void install() {
+        OceanLog.setPrinter(new StdoutLogPrinter());
+    }
+
+    @Override
+    public void println(int level, String tag, String message) {
+        char name = level >= 0 && level < LEVELS.length() ? LEVELS.charAt(level) : 'E';
+        System.out.println(name + "/" + tag + ": " + message);
+    }
+}
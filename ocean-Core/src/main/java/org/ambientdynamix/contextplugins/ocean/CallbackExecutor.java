@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) The Ambient Dynamix Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.ocean;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the bodies of Dynamix callbacks off the binder threads, so that slow processing never holds up the framework's
+ * binder pool. Data events (context results and pushes) go to a bounded queue drained by a small worker pool; when
+ * the queue is full the overflow policy decides which event is dropped, or whether the binder thread runs the event
+ * itself. Control events (session, handler and context support callbacks) are rare, must not be lost and may block on
+ * further IPC, so they run one at a time on a separate thread with an unbounded queue.
+ *
+ * @author Nirandika Wanigasekara
+ */
+class CallbackExecutor {
+    // Overflow policies
+    static final String DROP_NEWEST = "dropNewest";
+    static final String DROP_OLDEST = "dropOldest";
+    static final String CALLER_RUNS = "callerRuns";
+    private static final String TAG = "CallbackExecutor";
+
+    /**
+     * A data event that must be told when it is dropped, e.g. a response a snapshot round is waiting for.
+     */
+    interface Task extends Runnable {
+        /**
+         * Called instead of run if the task is dropped. Runs on the thread that dropped it, so it must be cheap.
+         */
+        void onDropped();
+    }
+
+    private final ThreadPoolExecutor workers;
+    private final ExecutorService control;
+    private final String overflowPolicy;
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * @param workerCount    The number of worker threads for data events
+     * @param queueSize      The number of data events that may wait for a worker
+     * @param overflowPolicy DROP_NEWEST, DROP_OLDEST or CALLER_RUNS
+     */
+    CallbackExecutor(int workerCount, int queueSize, String overflowPolicy) {
+        workerCount = Math.max(1, workerCount);
+        this.workers = new ThreadPoolExecutor(workerCount, workerCount, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(Math.max(1, queueSize)), new NamedThreadFactory("ocean-callback"),
+                new ThreadPoolExecutor.AbortPolicy());
+        this.control = Executors.newSingleThreadExecutor(new NamedThreadFactory("ocean-control"));
+        if (!DROP_NEWEST.equals(overflowPolicy) && !CALLER_RUNS.equals(overflowPolicy)) {
+            if (!DROP_OLDEST.equals(overflowPolicy))
+                OceanLog.w(TAG, "Unknown overflow policy {}, using {}", overflowPolicy, DROP_OLDEST);
+            overflowPolicy = DROP_OLDEST;
+        }
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Queues a data event, applying the overflow policy if the queue is full.
+     */
+    void execute(Runnable event) {
+        try {
+            workers.execute(event);
+            return;
+        } catch (RejectedExecutionException e) {
+            if (workers.isShutdown()) {
+                drop(event);
+                return;
+            }
+        }
+        if (CALLER_RUNS.equals(overflowPolicy)) {
+            event.run();
+        } else if (DROP_OLDEST.equals(overflowPolicy)) {
+            Runnable oldest = workers.getQueue().poll();
+            if (oldest != null)
+                drop(oldest);
+            try {
+                workers.execute(event);
+            } catch (RejectedExecutionException e) {
+                drop(event);
+            }
+        } else {
+            drop(event);
+        }
+    }
+
+    /**
+     * Queues a control event. Control events are never dropped.
+     */
+    void executeControl(Runnable event) {
+        try {
+            control.execute(event);
+        } catch (RejectedExecutionException e) {
+            OceanLog.w(TAG, "Control event after shutdown: {}", event);
+        }
+    }
+
+    /**
+     * Returns the number of data events dropped.
+     */
+    long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Stops both executors; queued data events are dropped.
+     */
+    void shutdown() {
+        control.shutdown();
+        for (Runnable event : workers.shutdownNow())
+            drop(event);
+    }
+
+    private void drop(Runnable event) {
+        long count = dropped.incrementAndGet();
+        // Log the first drop and then every 1000th, rather than flooding the log under overload
+        if (count == 1 || count % 1000 == 0)
+            OceanLog.w(TAG, "Dropped {} callback events so far (policy {})", count, overflowPolicy);
+        if (event instanceof Task)
+            ((Task) event).onDropped();
+    }
+
+    private static final class NamedThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        NamedThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, prefix + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
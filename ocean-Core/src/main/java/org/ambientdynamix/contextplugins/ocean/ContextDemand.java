@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) The Ambient Dynamix Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.ocean;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tracks which context types clients ask for, for the on-demand support mode. The catalog lists the sources that
+ * could be supported; a context type becomes pending on its first request, and its sources must then be registered.
+ * Requests naming a pending context type wait until its registration has ended, and the context type is active from
+ * then on. An active context type nobody has asked for within the idle window becomes inactive again, and its sources
+ * are released.
+ *
+ * @author Nirandika Wanigasekara
+ */
+class ContextDemand {
+    // Guarded by this
+    private final Map<String, List<SourceKey>> catalog = new HashMap<String, List<SourceKey>>();
+    // Guarded by this; only pending and active context types are present
+    private final Map<String, Demand> active = new HashMap<String, Demand>();
+    // Guarded by this; request counts of every context type ever asked for
+    private final Map<String, long[]> requestCounts = new HashMap<String, long[]>();
+
+    private static class Demand {
+        long lastRequested;
+        // True until the registration of the context type's sources has ended
+        boolean pending = true;
+        // The requests waiting for the registration
+        final List<Waiter> waiters = new ArrayList<Waiter>(1);
+
+        Demand(long lastRequested) {
+            this.lastRequested = lastRequested;
+        }
+    }
+
+    // A request waiting for the registration of one or more context types
+    private static class Waiter {
+        final Runnable request;
+        int remaining;
+
+        Waiter(Runnable request) {
+            this.request = request;
+        }
+    }
+
+    /**
+     * Adds a source that can be supported on demand.
+     */
+    synchronized void addToCatalog(SourceKey key) {
+        List<SourceKey> sources = catalog.get(key.getContextType());
+        if (sources == null) {
+            sources = new ArrayList<SourceKey>(1);
+            catalog.put(key.getContextType(), sources);
+        }
+        if (!sources.contains(key))
+            sources.add(key);
+    }
+
+    /**
+     * Records a request for the given context types, or for every context type of the catalog if contextTypes is null.
+     * The request is run right away if none of its context types is pending, otherwise once the registration of every
+     * pending one has ended (see onRegistrationEnded).
+     *
+     * @param request Answers the request
+     * @return The sources of the context types that became pending with this request, which must be registered
+     */
+    List<SourceKey> onRequested(Collection<String> contextTypes, long now, Runnable request) {
+        List<SourceKey> activated = null;
+        Waiter waiter = new Waiter(request);
+        boolean waiting;
+        synchronized (this) {
+            if (contextTypes == null)
+                contextTypes = new ArrayList<String>(catalog.keySet());
+            for (String contextType : contextTypes) {
+                long[] count = requestCounts.get(contextType);
+                if (count == null) {
+                    count = new long[1];
+                    requestCounts.put(contextType, count);
+                }
+                count[0]++;
+                Demand demand = active.get(contextType);
+                if (demand == null) {
+                    List<SourceKey> sources = catalog.get(contextType);
+                    if (sources == null)
+                        continue;
+                    demand = new Demand(now);
+                    active.put(contextType, demand);
+                    if (activated == null)
+                        activated = new ArrayList<SourceKey>();
+                    activated.addAll(sources);
+                }
+                demand.lastRequested = now;
+                if (demand.pending) {
+                    demand.waiters.add(waiter);
+                    waiter.remaining++;
+                }
+            }
+            waiting = waiter.remaining > 0;
+        }
+        if (!waiting)
+            request.run();
+        return activated != null ? activated : Collections.<SourceKey>emptyList();
+    }
+
+    /**
+     * Marks the context types active once the registration of their sources has ended, successfully or not, and runs
+     * the requests that were only waiting for them.
+     */
+    void onRegistrationEnded(Collection<String> contextTypes) {
+        List<Runnable> ready = new ArrayList<Runnable>();
+        synchronized (this) {
+            for (String contextType : contextTypes) {
+                Demand demand = active.get(contextType);
+                if (demand == null || !demand.pending)
+                    continue;
+                demand.pending = false;
+                for (Waiter waiter : demand.waiters) {
+                    if (--waiter.remaining == 0)
+                        ready.add(waiter.request);
+                }
+                demand.waiters.clear();
+            }
+        }
+        for (Runnable request : ready)
+            request.run();
+    }
+
+    /**
+     * Deactivates the active context types not requested within the idle window. Pending context types are kept.
+     *
+     * @return The sources of the deactivated context types, which must be released
+     */
+    synchronized List<SourceKey> releaseIdle(long now, long idleWindow) {
+        List<SourceKey> released = null;
+        for (Map.Entry<String, Demand> entry : new ArrayList<Map.Entry<String, Demand>>(active.entrySet())) {
+            Demand demand = entry.getValue();
+            if (demand.pending || now - demand.lastRequested < idleWindow)
+                continue;
+            active.remove(entry.getKey());
+            if (released == null)
+                released = new ArrayList<SourceKey>();
+            released.addAll(catalog.get(entry.getKey()));
+        }
+        return released != null ? released : Collections.<SourceKey>emptyList();
+    }
+
+    /**
+     * Forgets the catalog and every pending and active context type, e.g. when the session they were registered with
+     * is lost. Waiting requests are run, so that they are answered with whatever is routed.
+     */
+    void clear() {
+        List<Runnable> waiting = new ArrayList<Runnable>();
+        synchronized (this) {
+            for (Demand demand : active.values()) {
+                for (Waiter waiter : demand.waiters) {
+                    if (waiter.remaining > 0) {
+                        waiter.remaining = 0;
+                        waiting.add(waiter.request);
+                    }
+                }
+            }
+            active.clear();
+            catalog.clear();
+        }
+        for (Runnable request : waiting)
+            request.run();
+    }
+
+    /**
+     * Returns true if the context type is pending or active, i.e. its sources should be supported.
+     */
+    synchronized boolean isActive(String contextType) {
+        return active.containsKey(contextType);
+    }
+
+    /**
+     * Returns the number of requests that named the context type.
+     */
+    synchronized long getRequestCount(String contextType) {
+        long[] count = requestCounts.get(contextType);
+        return count != null ? count[0] : 0;
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) The Ambient Dynamix Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.ocean;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, least-recently-used cache of the latest result per (pluginId, contextType). A cached result is served only
+ * until it expires, so a hit never returns data the producing plugin considers stale. Results that never expire are
+ * served for a default time-to-live after they were cached.
+ *
+ * @author Nirandika Wanigasekara
+ */
+class ContextResultCache {
+    /**
+     * How long (ms) a result without an expire time is served from the cache.
+     */
+    static final long DEFAULT_TTL = 5000;
+    private final int capacity;
+    private final long defaultTtl;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final LinkedHashMap<SourceKey, CachedResult> entries;
+
+    /**
+     * @param capacity The maximum number of sources kept in the cache
+     */
+    ContextResultCache(int capacity) {
+        this(capacity, DEFAULT_TTL);
+    }
+
+    /**
+     * @param capacity   The maximum number of sources kept in the cache
+     * @param defaultTtl How long (ms) a result without an expire time is served from the cache
+     */
+    ContextResultCache(int capacity, long defaultTtl) {
+        this.capacity = capacity;
+        this.defaultTtl = defaultTtl;
+        this.entries = new LinkedHashMap<SourceKey, CachedResult>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<SourceKey, CachedResult> eldest) {
+                if (size() > ContextResultCache.this.capacity) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached result for the source if it has not expired at the given time, otherwise null.
+     */
+    synchronized SourceResult getFresh(SourceKey key, long now) {
+        CachedResult entry = entries.get(key);
+        if (entry != null && entry.validUntil > now) {
+            hits.incrementAndGet();
+            return entry.result;
+        }
+        if (entry != null)
+            entries.remove(key);
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Stores the result as the latest value of its source. Results that have already expired are not cached.
+     */
+    void put(SourceKey key, SourceResult result) {
+        put(key, result, System.currentTimeMillis());
+    }
+
+    /**
+     * Stores the result as the latest value of its source, as received at the given time.
+     */
+    synchronized void put(SourceKey key, SourceResult result, long now) {
+        long validUntil = result.getExpireTime() != 0 ? result.getExpireTime() : now + defaultTtl;
+        if (validUntil > now)
+            entries.put(key, new CachedResult(result, validUntil));
+        else
+            entries.remove(key);
+    }
+
+    /**
+     * Forgets the cached result of the source, e.g. after its plugin was uninstalled or its context support released.
+     */
+    synchronized void remove(SourceKey key) {
+        entries.remove(key);
+    }
+
+    synchronized void clear() {
+        entries.clear();
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    long getHitCount() {
+        return hits.get();
+    }
+
+    long getMissCount() {
+        return misses.get();
+    }
+
+    long getEvictionCount() {
+        return evictions.get();
+    }
+
+    private static final class CachedResult {
+        final SourceResult result;
+        final long validUntil;
+
+        CachedResult(SourceResult result, long validUntil) {
+            this.result = result;
+            this.validUntil = validUntil;
+        }
+    }
+}
@@ -0,0 +1,451 @@
+/*
+ * Copyright (C) The Ambient Dynamix Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.ocean;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Append-only on-device history of context results and snapshots. Records go to fixed-size segment files that are
+ * memory-mapped; each record is a fixed 16 byte header followed by its body:
+ *
+ * <pre>
+ * int  body length (0 marks the end of the segment's records)
+ * int  kind (KIND_RESULT or KIND_SNAPSHOT)
+ * long record time (ms since epoch)
+ * body: the binary layout of a MyContextSnapShot (a single entry for KIND_RESULT)
+ * </pre>
+ *
+ * The length is written last, so a record is only visible once it is complete. Segments are named after the time of
+ * their first record; a new segment is started when a record does not fit, and the oldest segments are deleted once
+ * there are more than maxSegments or they are older than the retention time.
+ * <p/>
+ * Appending only queues the record, so binder threads never wait for I/O. A single writer thread encodes and writes
+ * the queued records in batches, the first record queued after a batch scheduling the next one, so an idle log never
+ * wakes the thread. The writer thread also runs the queries; all segment state is confined to that thread. Queries
+ * skip segments whose records all lie outside the requested range and scan record headers directly in the mapping,
+ * copying only the bodies of matching records. Record times are taken when a record is queued and follow the wall
+ * clock, so they are not assumed to be ordered: a query scans every record of the segments it does not skip.
+ *
+ * @author Nirandika Wanigasekara
+ */
+class HistoryLog {
+    static final int KIND_RESULT = 1;
+    static final int KIND_SNAPSHOT = 2;
+    private static final String TAG = "HistoryLog";
+    private static final int HEADER_SIZE = 16;
+    private static final String SEGMENT_SUFFIX = ".seg";
+    // Time (ms) a queued record waits for its batch to be written
+    private static final long FLUSH_INTERVAL = 500;
+    // Records queued beyond this are dropped rather than growing the queue without bound
+    private static final int MAX_PENDING = 10000;
+
+    /**
+     * Receives the records found by a query.
+     */
+    interface QueryCallback {
+        /**
+         * @param entries      The entries of the records, one record after another
+         * @param recordTimes  The time of each record
+         * @param recordStarts The index in entries of the first entry of each record
+         */
+        void onRecords(List<SnapShotEntry> entries, long[] recordTimes, int[] recordStarts);
+    }
+
+    private final File directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final long retention;
+    private final ConcurrentLinkedQueue<Pending> pending = new ConcurrentLinkedQueue<Pending>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final AtomicLong dropped = new AtomicLong();
+    private final ScheduledExecutorService writer;
+    // Set while a batch is scheduled but has not started draining the queue yet
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private volatile boolean closed;
+    // Oldest first; the last segment is the one being written. Confined to the writer thread.
+    private final LinkedList<Segment> segments = new LinkedList<Segment>();
+
+    /**
+     * @param directory   The directory holding the segment files
+     * @param segmentSize The size (bytes) of each segment file
+     * @param maxSegments The number of segments kept
+     * @param retention   The longest time (ms) a segment is kept after its last record
+     */
+    HistoryLog(File directory, int segmentSize, int maxSegments, long retention) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = Math.max(1, maxSegments);
+        this.retention = retention;
+        this.writer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "ocean-history");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                open();
+            }
+        });
+    }
+
+    /**
+     * Queues a context result.
+     */
+    void append(SourceResult result) {
+        enqueue(new Pending(KIND_RESULT, System.currentTimeMillis(), result));
+    }
+
+    /**
+     * Queues a snapshot.
+     */
+    void append(MyContextSnapShot snapShot) {
+        enqueue(new Pending(KIND_SNAPSHOT, System.currentTimeMillis(), snapShot));
+    }
+
+    /**
+     * Returns the number of records dropped because the queue was full or a record was larger than a segment.
+     */
+    long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Finds the records of the given kind recorded between from and to (inclusive), in the order they were written.
+     * The query runs on the writer thread after the queued records have been written; the callback is invoked there.
+     * Once the log is closed, the callback is invoked on the calling thread with no records.
+     *
+     * @param limit The largest number of entries returned; only whole records are returned
+     */
+    void query(final long from, final long to, final int kind, final int limit, final QueryCallback callback) {
+        if (!closed) {
+            try {
+                writer.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        flush();
+                        find(from, to, kind, limit, callback);
+                    }
+                });
+                return;
+            } catch (RejectedExecutionException e) {
+                // Closed concurrently
+            }
+        }
+        callback.onRecords(Collections.<SnapShotEntry>emptyList(), new long[0], new int[0]);
+    }
+
+    /**
+     * Writes the queued records and stops the writer thread. Records appended afterwards are dropped.
+     */
+    synchronized void close() {
+        if (closed)
+            return;
+        closed = true;
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+                if (!segments.isEmpty() && segments.getLast().buffer != null)
+                    segments.getLast().buffer.force();
+            }
+        });
+        writer.shutdown();
+    }
+
+    private void enqueue(Pending record) {
+        if (closed) {
+            dropped.incrementAndGet();
+            return;
+        }
+        if (pendingCount.incrementAndGet() > MAX_PENDING) {
+            pendingCount.decrementAndGet();
+            dropped.incrementAndGet();
+            return;
+        }
+        pending.offer(record);
+        if (flushScheduled.compareAndSet(false, true)) {
+            try {
+                writer.schedule(scheduledFlush, FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // Closed concurrently; close() writes what is queued
+            }
+        }
+    }
+
+    /*
+     * Writes the batch the first record queued after the previous batch scheduled.
+     */
+    private final Runnable scheduledFlush = new Runnable() {
+        @Override
+        public void run() {
+            // Cleared first, so a record queued while the batch is written schedules the next one
+            flushScheduled.set(false);
+            flush();
+        }
+    };
+
+    /*
+     * Loads the existing segments; the newest one is mapped for writing and continued.
+     */
+    private void open() {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            OceanLog.w(TAG, "Cannot create {}", directory);
+            return;
+        }
+        File[] files = directory.listFiles();
+        if (files == null)
+            return;
+        Arrays.sort(files);
+        for (File file : files) {
+            if (!file.getName().endsWith(SEGMENT_SUFFIX))
+                continue;
+            try {
+                Segment segment = new Segment(file, parseFirstTime(file));
+                ByteBuffer buffer = map(file, FileChannel.MapMode.READ_ONLY);
+                scan(segment, buffer);
+                segments.add(segment);
+            } catch (Exception e) {
+                OceanLog.w(TAG, "Skipping unreadable segment {}: {}", file, e);
+            }
+        }
+        // Continue the newest segment, unless it was written with a different segment size
+        if (!segments.isEmpty() && segments.getLast().file.length() == segmentSize) {
+            Segment last = segments.getLast();
+            try {
+                last.buffer = map(last.file, FileChannel.MapMode.READ_WRITE);
+            } catch (IOException e) {
+                OceanLog.w(TAG, "Cannot reopen {}: {}", last.file, e);
+            }
+        }
+        applyRetention(System.currentTimeMillis());
+    }
+
+    /*
+     * Writes every queued record. Runs on the writer thread.
+     */
+    private void flush() {
+        Pending record;
+        boolean wrote = false;
+        while ((record = pending.poll()) != null) {
+            pendingCount.decrementAndGet();
+            try {
+                write(record.kind, record.time, encode(record));
+                wrote = true;
+            } catch (IOException e) {
+                dropped.incrementAndGet();
+                OceanLog.w(TAG, "Cannot write history record: {}", e);
+            }
+        }
+        if (wrote)
+            applyRetention(System.currentTimeMillis());
+    }
+
+    private static byte[] encode(Pending record) {
+        if (record.value instanceof MyContextSnapShot)
+            return ((MyContextSnapShot) record.value).getEncoded();
+        SourceResult result = (SourceResult) record.value;
+        return new MyContextSnapShot(Collections.singletonList(result.toEntry()), 0, false).getEncoded();
+    }
+
+    private void write(int kind, long time, byte[] body) throws IOException {
+        if (HEADER_SIZE + body.length > segmentSize) {
+            dropped.incrementAndGet();
+            return;
+        }
+        Segment active = segments.isEmpty() ? null : segments.getLast();
+        if (active == null || active.buffer == null || active.limit + HEADER_SIZE + body.length > segmentSize)
+            active = roll(time);
+        MappedByteBuffer buffer = active.buffer;
+        int position = active.limit;
+        buffer.putInt(position + 4, kind);
+        buffer.putLong(position + 8, time);
+        buffer.position(position + HEADER_SIZE);
+        buffer.put(body);
+        // Publish the record
+        buffer.putInt(position, body.length);
+        active.limit = position + HEADER_SIZE + body.length;
+        active.lastTime = time;
+        active.include(time);
+    }
+
+    /*
+     * Closes the active segment and starts a new one.
+     */
+    private Segment roll(long time) throws IOException {
+        if (!segments.isEmpty()) {
+            Segment previous = segments.getLast();
+            if (previous.buffer != null)
+                previous.buffer.force();
+            previous.buffer = null;
+            // Segment names must be unique and ordered
+            time = Math.max(time, previous.firstTime + 1);
+        }
+        Segment segment = new Segment(new File(directory, String.format(Locale.US, "%019d", time) + SEGMENT_SUFFIX), time);
+        RandomAccessFile file = new RandomAccessFile(segment.file, "rw");
+        try {
+            file.setLength(segmentSize);
+            segment.buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        } finally {
+            file.close();
+        }
+        segment.lastTime = time;
+        segments.add(segment);
+        return segment;
+    }
+
+    private void applyRetention(long now) {
+        while (segments.size() > 1
+                && (segments.size() > maxSegments || segments.getFirst().lastTime < now - retention)) {
+            Segment oldest = segments.removeFirst();
+            if (!oldest.file.delete())
+                OceanLog.w(TAG, "Cannot delete {}", oldest.file);
+        }
+    }
+
+    private void find(long from, long to, int kind, int limit, QueryCallback callback) {
+        List<SnapShotEntry> entries = new ArrayList<SnapShotEntry>();
+        List<Long> recordTimes = new ArrayList<Long>();
+        List<Integer> recordStarts = new ArrayList<Integer>();
+        scanning:
+        for (Segment segment : segments) {
+            if (segment.maxTime < from || segment.minTime > to)
+                continue;
+            ByteBuffer buffer;
+            try {
+                buffer = segment.buffer != null ? segment.buffer.duplicate()
+                        : map(segment.file, FileChannel.MapMode.READ_ONLY);
+            } catch (IOException e) {
+                OceanLog.w(TAG, "Cannot read {}: {}", segment.file, e);
+                continue;
+            }
+            int position = 0;
+            while (position + HEADER_SIZE <= segment.limit) {
+                int length = buffer.getInt(position);
+                long time = buffer.getLong(position + 8);
+                if (time >= from && time <= to && buffer.getInt(position + 4) == kind) {
+                    byte[] body = new byte[length];
+                    buffer.position(position + HEADER_SIZE);
+                    buffer.get(body);
+                    MyContextSnapShot snapShot = new MyContextSnapShot(body);
+                    if (entries.size() + snapShot.getEntryCount() > limit)
+                        break scanning;
+                    recordTimes.add(time);
+                    recordStarts.add(entries.size());
+                    for (int i = 0; i < snapShot.getEntryCount(); i++)
+                        entries.add(snapShot.getEntry(i));
+                }
+                position += HEADER_SIZE + length;
+            }
+        }
+        long[] times = new long[recordTimes.size()];
+        int[] starts = new int[recordStarts.size()];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = recordTimes.get(i);
+            starts[i] = recordStarts.get(i);
+        }
+        callback.onRecords(entries, times, starts);
+    }
+
+    /*
+     * Finds the end of the records of a segment and the time of its last record.
+     */
+    private void scan(Segment segment, ByteBuffer buffer) {
+        int position = 0;
+        segment.lastTime = segment.firstTime;
+        while (position + HEADER_SIZE <= buffer.limit()) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + HEADER_SIZE + length > buffer.limit())
+                break;
+            segment.lastTime = buffer.getLong(position + 8);
+            segment.include(segment.lastTime);
+            position += HEADER_SIZE + length;
+        }
+        segment.limit = position;
+    }
+
+    private MappedByteBuffer map(File file, FileChannel.MapMode mode) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, mode == FileChannel.MapMode.READ_ONLY ? "r" : "rw");
+        try {
+            return raf.getChannel().map(mode, 0, Math.min(raf.length(), segmentSize));
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static long parseFirstTime(File file) {
+        String name = file.getName();
+        return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static final class Segment {
+        final File file;
+        final long firstTime;
+        long lastTime;
+        // The range of the times of the segment's records, which need not be in order
+        long minTime = Long.MAX_VALUE;
+        long maxTime = Long.MIN_VALUE;
+        // The end of the records
+        int limit;
+        // The writable mapping of the active segment, null once the segment is closed
+        MappedByteBuffer buffer;
+
+        Segment(File file, long firstTime) {
+            this.file = file;
+            this.firstTime = firstTime;
+        }
+
+        void include(long time) {
+            minTime = Math.min(minTime, time);
+            maxTime = Math.max(maxTime, time);
+        }
+    }
+
+    private static final class Pending {
+        final int kind;
+        final long time;
+        final Object value;
+
+        Pending(int kind, long time, Object value) {
+            this.kind = kind;
+            this.time = time;
+            this.value = value;
+        }
+    }
+}
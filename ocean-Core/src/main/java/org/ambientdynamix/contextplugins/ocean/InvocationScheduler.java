@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) The Ambient Dynamix Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.ocean;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.ambientdynamix.api.contextplugin.PowerScheme;
+
+/**
+ * Keeps the results of pull-only sources fresh in the background. Each route gets its own refresh interval, derived
+ * from the base interval of the current PowerScheme, the lifetime of its last result and its last measured latency,
+ * and never longer than the configured staleness bound. Refreshes are batched into wake-up windows: every wake-up
+ * refreshes all routes that fall due before the next window, and the scheduler sleeps at least one window between
+ * wake-ups. Auto-reactive routes are never refreshed, since their plugins push new results on their own. The
+ * refreshes themselves are handed to a separate executor, as issuing them may block on IPC while the scheduling
+ * executor is shared with time-critical tasks.
+ *
+ * @author Nirandika Wanigasekara
+ */
+class InvocationScheduler {
+
+    /**
+     * The routes to schedule and the way refreshes are issued.
+     */
+    interface Target {
+        /**
+         * Returns the current routes.
+         */
+        PluginRoute[] getRoutes();
+
+        /**
+         * Issues a context request for each of the routes.
+         */
+        void refresh(List<PluginRoute> due);
+    }
+
+    // Shortest interval between two refreshes of the same route
+    static final long MIN_INTERVAL = 1000;
+
+    private final Target target;
+    private volatile PowerScheme powerScheme = PowerScheme.BALANCED;
+    private volatile long maxStaleness;
+    private ScheduledExecutorService executor;
+    private Executor refresher;
+    private ScheduledFuture<?> wakeUp;
+
+    private final Runnable window = new Runnable() {
+        @Override
+        public void run() {
+            runWindow();
+        }
+    };
+
+    /**
+     * @param target       The routes to schedule
+     * @param maxStaleness The longest time (ms) a pull-only source may go without a refresh
+     */
+    InvocationScheduler(Target target, long maxStaleness) {
+        this.target = target;
+        this.maxStaleness = maxStaleness;
+    }
+
+    /**
+     * Starts scheduling on the given executor. The first window runs immediately.
+     *
+     * @param executor  Runs the wake-ups
+     * @param refresher Issues the refreshes of each window
+     */
+    synchronized void start(ScheduledExecutorService executor, Executor refresher) {
+        stop();
+        this.executor = executor;
+        this.refresher = refresher;
+        wakeUp = executor.schedule(window, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops scheduling. Refreshes already issued are not cancelled.
+     */
+    synchronized void stop() {
+        if (wakeUp != null)
+            wakeUp.cancel(false);
+        wakeUp = null;
+        executor = null;
+        refresher = null;
+    }
+
+    void setPowerScheme(PowerScheme powerScheme) {
+        if (powerScheme != null)
+            this.powerScheme = powerScheme;
+    }
+
+    void setMaxStaleness(long maxStaleness) {
+        this.maxStaleness = maxStaleness;
+    }
+
+    /**
+     * Reschedules the route after it delivered a result.
+     */
+    void onResult(PluginRoute route, SourceResult result) {
+        long now = System.currentTimeMillis();
+        long lifetime = result.getExpireTime() > now ? result.getExpireTime() - now : 0;
+        route.setNextRefresh(now + intervalFor(route, lifetime));
+    }
+
+    /*
+     * Hands every route due before the next window to the refresher and schedules the next wake-up. Never blocks.
+     */
+    private void runWindow() {
+        final List<PluginRoute> due = new ArrayList<PluginRoute>();
+        Executor refresher;
+        synchronized (this) {
+            if (executor == null)
+                return;
+            long now = System.currentTimeMillis();
+            long horizon = now + getWindow();
+            long nextDue = Long.MAX_VALUE;
+            for (PluginRoute route : target.getRoutes()) {
+                if (route.isAutoReactive())
+                    continue;
+                if (route.getNextRefresh() < horizon) {
+                    due.add(route);
+                    // Provisional, replaced by onResult once the result arrives
+                    route.setNextRefresh(now + intervalFor(route, 0));
+                }
+                nextDue = Math.min(nextDue, route.getNextRefresh());
+            }
+            long delay = nextDue == Long.MAX_VALUE ? getBaseInterval() : nextDue - now;
+            delay = Math.min(Math.max(delay, getWindow()), Math.max(maxStaleness, getWindow()));
+            wakeUp = executor.schedule(window, delay, TimeUnit.MILLISECONDS);
+            refresher = this.refresher;
+        }
+        if (!due.isEmpty()) {
+            refresher.execute(new Runnable() {
+                @Override
+                public void run() {
+                    target.refresh(due);
+                }
+            });
+        }
+    }
+
+    /*
+     * The refresh interval of a route: the base interval, shortened to the staleness bound and the lifetime of the
+     * last result (if known), minus the last latency so the new result arrives before the old one expires.
+     */
+    private long intervalFor(PluginRoute route, long lifetime) {
+        long interval = Math.min(getBaseInterval(), maxStaleness);
+        if (lifetime > 0)
+            interval = Math.min(interval, lifetime);
+        long latency = route.getLastLatency();
+        if (latency > 0)
+            interval -= latency;
+        return Math.max(MIN_INTERVAL, interval);
+    }
+
+    private long getBaseInterval() {
+        switch (powerScheme) {
+            case HIGH_PERFORMANCE:
+                return 15000;
+            case POWER_SAVER:
+                return 300000;
+            default:
+                return 60000;
+        }
+    }
+
+    private long getWindow() {
+        switch (powerScheme) {
+            case HIGH_PERFORMANCE:
+                return 2000;
+            case POWER_SAVER:
+                return 60000;
+            default:
+                return 10000;
+        }
+    }
+}
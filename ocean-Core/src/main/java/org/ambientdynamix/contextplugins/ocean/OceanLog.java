@@ -0,0 +1,311 @@
+/*
+ * Copyright (C) The Ambient Dynamix Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.ocean;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.util.Log;
+
+/**
+ * Logging facility of ocean. The level check is a single volatile read done before any message is formatted, and
+ * messages take their arguments separately from a template in which each "{}" is replaced by the next argument, so a
+ * disabled call formats nothing. Callers whose arguments are expensive to compute check isLoggable first.
+ * <p/>
+ * In trace mode, enabled messages are not sent to logcat but recorded into a fixed-size ring buffer of preallocated
+ * slots that keeps the template and argument references; they are only formatted when the buffer is dumped.
+ * <p/>
+ * Formatted messages go to logcat unless another Printer is set, e.g. to run ocean on a plain JVM, where the Android
+ * Log class is not available.
+ *
+ * @author Nirandika Wanigasekara
+ */
+final class OceanLog {
+    static final int VERBOSE = Log.VERBOSE;
+    static final int DEBUG = Log.DEBUG;
+    static final int INFO = Log.INFO;
+    static final int WARN = Log.WARN;
+    static final int ERROR = Log.ERROR;
+    static final int OFF = Integer.MAX_VALUE;
+    // ContextPluginSettings key selecting the lowest enabled level: VERBOSE, DEBUG, INFO, WARN, ERROR or OFF
+    static final String LOG_LEVEL_SETTING = "logLevel";
+    // ContextPluginSettings key (int): the number of messages kept in trace mode, 0 logs to logcat
+    static final String TRACE_SIZE_SETTING = "logTraceSize";
+    private static final int DEFAULT_LEVEL = WARN;
+
+    /**
+     * Writes formatted messages.
+     */
+    interface Printer {
+        void println(int level, String tag, String message);
+    }
+
+    private static final Printer LOGCAT = new Printer() {
+        @Override
+        public void println(int messageLevel, String tag, String message) {
+            switch (messageLevel) {
+                case VERBOSE:
+                    Log.v(tag, message);
+                    break;
+                case DEBUG:
+                    Log.d(tag, message);
+                    break;
+                case INFO:
+                    Log.i(tag, message);
+                    break;
+                case WARN:
+                    Log.w(tag, message);
+                    break;
+                default:
+                    Log.e(tag, message);
+                    break;
+            }
+        }
+    };
+
+    private static volatile int level = DEFAULT_LEVEL;
+    private static volatile Trace trace;
+    private static volatile Printer printer = LOGCAT;
+
+    private OceanLog() {
+    }
+
+    /**
+     * Applies the logging settings, keeping the current values for anything missing or malformed.
+     */
+    static void configure(Map<String, String> settings) {
+        String levelName = settings.get(LOG_LEVEL_SETTING);
+        if (levelName != null) {
+            int parsed = parseLevel(levelName);
+            if (parsed != -1)
+                level = parsed;
+        }
+        String traceSize = settings.get(TRACE_SIZE_SETTING);
+        if (traceSize != null) {
+            try {
+                setTraceSize(Integer.parseInt(traceSize));
+            } catch (NumberFormatException e) {
+                w("OceanLog", "Invalid {}: {}", TRACE_SIZE_SETTING, traceSize);
+            }
+        }
+    }
+
+    static void setLevel(int newLevel) {
+        level = newLevel;
+    }
+
+    /**
+     * Switches trace mode on with a buffer of the given size, or off if size is 0 or less. The messages recorded so
+     * far are discarded.
+     */
+    static void setTraceSize(int size) {
+        trace = size > 0 ? new Trace(size) : null;
+    }
+
+    /**
+     * Sends the formatted messages to the given printer instead of logcat, or back to logcat if printer is null.
+     */
+    static void setPrinter(Printer newPrinter) {
+        printer = newPrinter != null ? newPrinter : LOGCAT;
+    }
+
+    static boolean isLoggable(int messageLevel) {
+        return messageLevel >= level;
+    }
+
+    static void v(String tag, String message) {
+        if (VERBOSE >= level)
+            log(VERBOSE, tag, message, null, null, null);
+    }
+
+    static void v(String tag, String template, Object arg) {
+        if (VERBOSE >= level)
+            log(VERBOSE, tag, template, arg, null, null);
+    }
+
+    static void v(String tag, String template, Object arg1, Object arg2) {
+        if (VERBOSE >= level)
+            log(VERBOSE, tag, template, arg1, arg2, null);
+    }
+
+    static void d(String tag, String message) {
+        if (DEBUG >= level)
+            log(DEBUG, tag, message, null, null, null);
+    }
+
+    static void d(String tag, String template, Object arg) {
+        if (DEBUG >= level)
+            log(DEBUG, tag, template, arg, null, null);
+    }
+
+    static void d(String tag, String template, Object arg1, Object arg2) {
+        if (DEBUG >= level)
+            log(DEBUG, tag, template, arg1, arg2, null);
+    }
+
+    static void i(String tag, String message) {
+        if (INFO >= level)
+            log(INFO, tag, message, null, null, null);
+    }
+
+    static void i(String tag, String template, Object arg) {
+        if (INFO >= level)
+            log(INFO, tag, template, arg, null, null);
+    }
+
+    static void i(String tag, String template, Object arg1, Object arg2) {
+        if (INFO >= level)
+            log(INFO, tag, template, arg1, arg2, null);
+    }
+
+    static void w(String tag, String message) {
+        if (WARN >= level)
+            log(WARN, tag, message, null, null, null);
+    }
+
+    static void w(String tag, String template, Object arg) {
+        if (WARN >= level)
+            log(WARN, tag, template, arg, null, null);
+    }
+
+    static void w(String tag, String template, Object arg1, Object arg2) {
+        if (WARN >= level)
+            log(WARN, tag, template, arg1, arg2, null);
+    }
+
+    static void w(String tag, String template, Object arg1, Object arg2, Object arg3) {
+        if (WARN >= level)
+            log(WARN, tag, template, arg1, arg2, arg3);
+    }
+
+    static void e(String tag, String message) {
+        if (ERROR >= level)
+            log(ERROR, tag, message, null, null, null);
+    }
+
+    static void e(String tag, String template, Object arg) {
+        if (ERROR >= level)
+            log(ERROR, tag, template, arg, null, null);
+    }
+
+    /**
+     * Writes the messages recorded in trace mode since the last dump to logcat, oldest first.
+     */
+    static void dumpTrace() {
+        Trace current = trace;
+        if (current != null)
+            current.dump();
+    }
+
+    private static void log(int messageLevel, String tag, String template, Object arg1, Object arg2, Object arg3) {
+        Trace current = trace;
+        if (current != null)
+            current.record(messageLevel, tag, template, arg1, arg2, arg3);
+        else
+            println(messageLevel, tag, format(template, arg1, arg2, arg3));
+    }
+
+    private static void println(int messageLevel, String tag, String message) {
+        printer.println(messageLevel, tag, message);
+    }
+
+    /*
+     * Replaces the first three "{}" of the template with the arguments.
+     */
+    static String format(String template, Object arg1, Object arg2, Object arg3) {
+        if (template == null || template.indexOf("{}") < 0)
+            return template;
+        StringBuilder message = new StringBuilder(template.length() + 32);
+        int start = 0;
+        for (int i = 0; i < 3; i++) {
+            int at = template.indexOf("{}", start);
+            if (at < 0)
+                break;
+            message.append(template, start, at).append(i == 0 ? arg1 : i == 1 ? arg2 : arg3);
+            start = at + 2;
+        }
+        return message.append(template, start, template.length()).toString();
+    }
+
+    private static int parseLevel(String name) {
+        String upper = name.trim().toUpperCase();
+        if (upper.equals("VERBOSE"))
+            return VERBOSE;
+        if (upper.equals("DEBUG"))
+            return DEBUG;
+        if (upper.equals("INFO"))
+            return INFO;
+        if (upper.equals("WARN"))
+            return WARN;
+        if (upper.equals("ERROR"))
+            return ERROR;
+        if (upper.equals("OFF"))
+            return OFF;
+        return -1;
+    }
+
+    /*
+     * Ring buffer of trace messages. Slots are claimed with one atomic increment; a slot overwritten while it is being
+     * dumped may show a mix of two messages, which is acceptable for diagnostics.
+     */
+    private static final class Trace {
+        private final AtomicLong next = new AtomicLong();
+        // Guarded by this
+        private long dumped;
+        private final long[] times;
+        private final int[] levels;
+        private final String[] tags;
+        private final String[] templates;
+        private final Object[] args1;
+        private final Object[] args2;
+        private final Object[] args3;
+
+        Trace(int size) {
+            times = new long[size];
+            levels = new int[size];
+            tags = new String[size];
+            templates = new String[size];
+            args1 = new Object[size];
+            args2 = new Object[size];
+            args3 = new Object[size];
+        }
+
+        void record(int messageLevel, String tag, String template, Object arg1, Object arg2, Object arg3) {
+            int slot = (int) (next.getAndIncrement() % times.length);
+            times[slot] = System.currentTimeMillis();
+            levels[slot] = messageLevel;
+            tags[slot] = tag;
+            templates[slot] = template;
+            args1[slot] = arg1;
+            args2[slot] = arg2;
+            args3[slot] = arg3;
+        }
+
+        synchronized void dump() {
+            long end = next.get();
+            long start = Math.max(dumped, end - times.length);
+            for (long i = start; i < end; i++) {
+                int slot = (int) (i % times.length);
+                println(levels[slot], tags[slot], "[" + times[slot] + "] "
+                        + format(templates[slot], args1[slot], args2[slot], args3[slot]));
+                args1[slot] = null;
+                args2[slot] = null;
+                args3[slot] = null;
+            }
+            dumped = end;
+        }
+    }
+}
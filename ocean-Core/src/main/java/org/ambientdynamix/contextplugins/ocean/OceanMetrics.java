@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) The Ambient Dynamix Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.ocean;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Registry of the metrics ocean keeps about itself: per-source request, success, failure and push counts with
+ * request latency histograms, snapshot-level counters and startup timings. Recording on an existing source is a map lookup plus
+ * atomic increments.
+ *
+ * @author Nirandika Wanigasekara
+ */
+class OceanMetrics {
+    private final ConcurrentHashMap<SourceKey, SourceMetrics> sources = new ConcurrentHashMap<SourceKey, SourceMetrics>();
+    private final AtomicLong snapshots = new AtomicLong();
+    private final AtomicLong timedOutSnapshots = new AtomicLong();
+    private volatile long startTime = -1;
+    private final AtomicLong timeToFirstSnapshot = new AtomicLong(-1);
+    private volatile int registered;
+    private volatile int registrationFailures;
+    private volatile long registrationTime = -1;
+    private final AtomicLong restarts = new AtomicLong();
+    private final AtomicLong warmRestarts = new AtomicLong();
+    private volatile long restartTime = -1;
+    private final AtomicLong restartToFirstSnapshot = new AtomicLong(-1);
+
+    /**
+     * Returns the metrics of the source, creating them on first use.
+     */
+    SourceMetrics forSource(SourceKey key) {
+        SourceMetrics metrics = sources.get(key);
+        if (metrics == null) {
+            SourceMetrics created = new SourceMetrics(key);
+            metrics = sources.putIfAbsent(key, created);
+            if (metrics == null)
+                metrics = created;
+        }
+        return metrics;
+    }
+
+    /**
+     * Records a completed snapshot round.
+     */
+    void onSnapshot(boolean timedOut) {
+        snapshots.incrementAndGet();
+        if (timedOut)
+            timedOutSnapshots.incrementAndGet();
+    }
+
+    /**
+     * Records the start of the runtime, from which the startup timings are measured.
+     */
+    void onStart(long now) {
+        startTime = now;
+        timeToFirstSnapshot.set(-1);
+        registrationTime = -1;
+    }
+
+    /**
+     * Records a start after the first, from which the restart to first snapshot time is measured.
+     *
+     * @param warm True if the session, handler and routes were kept from before the stop
+     */
+    void onRestart(long now, boolean warm) {
+        restarts.incrementAndGet();
+        if (warm)
+            warmRestarts.incrementAndGet();
+        restartTime = now;
+        restartToFirstSnapshot.set(-1);
+    }
+
+    /**
+     * Records the end of the startup context support registrations.
+     */
+    void onRegistrationComplete(int registered, int failed, long now) {
+        this.registered = registered;
+        this.registrationFailures = failed;
+        if (startTime >= 0)
+            registrationTime = now - startTime;
+    }
+
+    /**
+     * Records a snapshot sent to a client; the first one with at least one entry ends the time to first snapshot, and
+     * the first one after a restart the restart to first snapshot time.
+     */
+    void onSnapshotSent(int entryCount, long now) {
+        if (entryCount == 0)
+            return;
+        long start = startTime;
+        if (start >= 0 && timeToFirstSnapshot.get() < 0)
+            timeToFirstSnapshot.compareAndSet(-1, now - start);
+        long restart = restartTime;
+        if (restart >= 0 && restartToFirstSnapshot.get() < 0)
+            restartToFirstSnapshot.compareAndSet(-1, now - restart);
+    }
+
+    long getTimeToFirstSnapshot() {
+        return timeToFirstSnapshot.get();
+    }
+
+    long getSnapshotCount() {
+        return snapshots.get();
+    }
+
+    long getTimedOutSnapshotCount() {
+        return timedOutSnapshots.get();
+    }
+
+    List<SourceMetrics> getSources() {
+        return new ArrayList<SourceMetrics>(sources.values());
+    }
+
+    /**
+     * Copies the current values into an OceanMetricsInfo that can be sent to clients.
+     */
+    OceanMetricsInfo toInfo(ContextResultCache cache) {
+        List<SourceMetrics> current = getSources();
+        long now = System.currentTimeMillis();
+        OceanMetricsInfo info = new OceanMetricsInfo(current.size(), snapshots.get(), timedOutSnapshots.get(),
+                cache.getHitCount(), cache.getMissCount(), cache.getEvictionCount());
+        info.setStartup(registered, registrationFailures, registrationTime, timeToFirstSnapshot.get());
+        info.setRestarts(restarts.get(), warmRestarts.get(), restartToFirstSnapshot.get());
+        for (int i = 0; i < current.size(); i++) {
+            SourceMetrics metrics = current.get(i);
+            LatencyHistogram latency = metrics.getLatency();
+            info.setSource(i, metrics.getKey().getPluginId(), metrics.getKey().getContextType(),
+                    metrics.getRequestCount(), metrics.getSuccessCount(), metrics.getFailureCount(),
+                    metrics.getPushCount(), metrics.getPushRate(now), latency.getPercentile(50),
+                    latency.getPercentile(90), latency.getPercentile(99), latency.getMax());
+        }
+        return info;
+    }
+}
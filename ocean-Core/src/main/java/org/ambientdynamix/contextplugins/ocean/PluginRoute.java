@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) The Ambient Dynamix Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.ocean;
+
+/**
+ * One entry of the PluginRoutingTable: a context type offered by a plugin, together with what ocean has observed about
+ * it. The source never changes; the observations are updated in place by the callbacks.
+ *
+ * @author Nirandika Wanigasekara
+ */
+class PluginRoute {
+    private final SourceKey key;
+    private volatile boolean autoReactive;
+    private volatile long lastLatency = -1;
+    private volatile long nextRefresh;
+    private final SourceHealth health = new SourceHealth();
+
+    PluginRoute(SourceKey key) {
+        this.key = key;
+    }
+
+    SourceKey getKey() {
+        return key;
+    }
+
+    String getPluginId() {
+        return key.getPluginId();
+    }
+
+    String getContextType() {
+        return key.getContextType();
+    }
+
+    /**
+     * True once the source has pushed a result through the ContextListener.
+     */
+    boolean isAutoReactive() {
+        return autoReactive;
+    }
+
+    void setAutoReactive(boolean autoReactive) {
+        this.autoReactive = autoReactive;
+    }
+
+    /**
+     * The latency (ms) of the last answered context request, or -1 if no request has been answered yet.
+     */
+    long getLastLatency() {
+        return lastLatency;
+    }
+
+    void setLastLatency(long lastLatency) {
+        this.lastLatency = lastLatency;
+    }
+
+    /**
+     * The time (ms since epoch) the InvocationScheduler next refreshes this route; 0 if it is due immediately.
+     */
+    long getNextRefresh() {
+        return nextRefresh;
+    }
+
+    void setNextRefresh(long nextRefresh) {
+        this.nextRefresh = nextRefresh;
+    }
+
+    SourceHealth getHealth() {
+        return health;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) The Ambient Dynamix Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.ocean;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable table of every context source ocean dispatches requests to. The table is built once from the installed
+ * plugin information; installing or uninstalling a plugin produces a new table that keeps the existing PluginRoute
+ * instances (and their observations) for all other sources. Dispatching only walks the flat route array.
+ *
+ * @author Nirandika Wanigasekara
+ */
+class PluginRoutingTable {
+    static final PluginRoutingTable EMPTY = new PluginRoutingTable(new PluginRoute[0]);
+
+    private final PluginRoute[] routes;
+    private final Map<SourceKey, PluginRoute> index;
+
+    private PluginRoutingTable(PluginRoute[] routes) {
+        this.routes = routes;
+        Map<SourceKey, PluginRoute> index = new HashMap<SourceKey, PluginRoute>(routes.length * 2);
+        for (PluginRoute route : routes)
+            index.put(route.getKey(), route);
+        this.index = Collections.unmodifiableMap(index);
+    }
+
+    /**
+     * Returns the routes in dispatch order. The array is shared and must not be modified.
+     */
+    PluginRoute[] getRoutes() {
+        return routes;
+    }
+
+    int size() {
+        return routes.length;
+    }
+
+    /**
+     * Returns the route of the source, or null if the source is not part of the table.
+     */
+    PluginRoute get(SourceKey key) {
+        return index.get(key);
+    }
+
+    /**
+     * Returns a table that additionally routes the given context types of the plugin. Existing routes are kept.
+     */
+    PluginRoutingTable withPlugin(String pluginId, Collection<String> contextTypes) {
+        List<PluginRoute> updated = new ArrayList<PluginRoute>(routes.length + contextTypes.size());
+        Collections.addAll(updated, routes);
+        boolean changed = false;
+        for (String contextType : contextTypes) {
+            SourceKey key = new SourceKey(pluginId, contextType);
+            if (!index.containsKey(key)) {
+                updated.add(new PluginRoute(key));
+                changed = true;
+            }
+        }
+        return changed ? new PluginRoutingTable(updated.toArray(new PluginRoute[updated.size()])) : this;
+    }
+
+    /**
+     * Returns a table without any route of the plugin.
+     */
+    PluginRoutingTable withoutPlugin(String pluginId) {
+        List<PluginRoute> updated = new ArrayList<PluginRoute>(routes.length);
+        for (PluginRoute route : routes) {
+            if (!route.getPluginId().equals(pluginId))
+                updated.add(route);
+        }
+        return updated.size() == routes.length ? this
+                : new PluginRoutingTable(updated.toArray(new PluginRoute[updated.size()]));
+    }
+
+    /**
+     * Returns a table without the route of the source.
+     */
+    PluginRoutingTable withoutSource(SourceKey key) {
+        if (!index.containsKey(key))
+            return this;
+        List<PluginRoute> updated = new ArrayList<PluginRoute>(routes.length);
+        for (PluginRoute route : routes) {
+            if (!route.getKey().equals(key))
+                updated.add(route);
+        }
+        return new PluginRoutingTable(updated.toArray(new PluginRoute[updated.size()]));
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) The Ambient Dynamix Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.ocean;
+
+import java.lang.reflect.Method;
+
+import org.ambientdynamix.api.application.IContextInfo;
+
+/**
+ * Decodes a context type by calling the no-argument accessors of its IContextInfo. The datatype classes of other
+ * plugins are loaded by their own class loaders, so casting to their interfaces fails; instead the accessors are
+ * looked up by name on the class of the first result and the Methods are kept for every following result of that
+ * class. Accessors returning a number or a boolean (as 1 or 0) are supported.
+ *
+ * @author Nirandika Wanigasekara
+ */
+class ReflectiveResultDecoder implements ResultDecoder {
+    private static final String TAG = "ReflectiveResultDecoder";
+    private static final Object[] NO_ARGS = new Object[0];
+
+    private final String contextType;
+    private final String[] fieldNames;
+    private final String[] accessors;
+    private volatile Accessors resolved;
+
+    /**
+     * @param contextType The context type to decode
+     * @param fieldNames  The names of the decoded fields
+     * @param accessors   The accessor method of each field, in the order of fieldNames
+     */
+    ReflectiveResultDecoder(String contextType, String[] fieldNames, String[] accessors) {
+        if (fieldNames.length != accessors.length)
+            throw new IllegalArgumentException("Field names and accessors differ in length");
+        this.contextType = contextType;
+        this.fieldNames = fieldNames;
+        this.accessors = accessors;
+    }
+
+    @Override
+    public String getContextType() {
+        return contextType;
+    }
+
+    @Override
+    public String[] getFieldNames() {
+        return fieldNames;
+    }
+
+    @Override
+    public double[] decode(IContextInfo info) {
+        Accessors current = resolved;
+        if (current == null || current.type != info.getClass()) {
+            current = resolve(info.getClass());
+            resolved = current;
+        }
+        if (current.methods == null)
+            return null;
+        double[] values = new double[current.methods.length];
+        try {
+            for (int i = 0; i < values.length; i++)
+                values[i] = toDouble(current.methods[i].invoke(info, NO_ARGS));
+        } catch (Exception e) {
+            OceanLog.w(TAG, "Cannot decode {}: {}", contextType, e);
+            return null;
+        }
+        return values;
+    }
+
+    /*
+     * Looks up the accessors on the public interfaces of the class first, since the implementing classes of
+     * datatypes are usually not public.
+     */
+    private Accessors resolve(Class<?> type) {
+        Method[] methods = new Method[accessors.length];
+        for (int i = 0; i < accessors.length; i++) {
+            methods[i] = findAccessor(type, accessors[i]);
+            if (methods[i] == null) {
+                OceanLog.w(TAG, "{} has no accessor {}", type.getName(), accessors[i]);
+                return new Accessors(type, null);
+            }
+        }
+        return new Accessors(type, methods);
+    }
+
+    private static Method findAccessor(Class<?> type, String name) {
+        for (Class<?> candidate = type; candidate != null; candidate = candidate.getSuperclass()) {
+            for (Class<?> contract : candidate.getInterfaces()) {
+                try {
+                    return contract.getMethod(name);
+                } catch (NoSuchMethodException e) {
+                    // Try the next interface
+                }
+            }
+        }
+        try {
+            Method method = type.getMethod(name);
+            method.setAccessible(true);
+            return method;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static double toDouble(Object value) {
+        if (value instanceof Number)
+            return ((Number) value).doubleValue();
+        if (value instanceof Boolean)
+            return ((Boolean) value) ? 1 : 0;
+        return Double.NaN;
+    }
+
+    /*
+     * The accessors resolved for one class; methods is null if the class lacks one of them.
+     */
+    private static final class Accessors {
+        final Class<?> type;
+        final Method[] methods;
+
+        Accessors(Class<?> type, Method[] methods) {
+            this.type = type;
+            this.methods = methods;
+        }
+    }
+}
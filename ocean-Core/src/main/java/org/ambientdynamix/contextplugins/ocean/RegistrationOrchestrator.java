@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) The Ambient Dynamix Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.ocean;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adds context support for a batch of sources with bounded parallelism. At most maxParallel registrations are
+ * outstanding at a time; each one ends when Dynamix reports success or failure, or when its timeout passes, and frees
+ * its slot for the next pending source. The listener is told once when every registration has ended, so that the first
+ * fan-out only starts once the routes it needs are registered (or known to be broken).
+ *
+ * @author Nirandika Wanigasekara
+ */
+class RegistrationOrchestrator {
+    // Registration states
+    static final int PENDING = 0;
+    static final int REGISTERING = 1;
+    static final int REGISTERED = 2;
+    static final int FAILED = 3;
+    static final int TIMED_OUT = 4;
+    private static final String TAG = "RegistrationOrchestrator";
+
+    /**
+     * Issues one context support registration.
+     */
+    interface Registrar {
+        /**
+         * Starts the registration of the source. Must report its outcome to the callback exactly once, or not at all
+         * if it never completes.
+         *
+         * @throws Exception If the registration could not be issued, which counts as a failure
+         */
+        void register(SourceKey key, Callback callback) throws Exception;
+    }
+
+    /**
+     * Receives the progress and outcome of one registration. May be called from any thread.
+     */
+    interface Callback {
+        void onProgress(int percent);
+
+        /**
+         * @param contextType The context type Dynamix registered, which may differ in case from the requested one
+         */
+        void onSuccess(String contextType);
+
+        void onFailure(String message, int errorCode);
+    }
+
+    /**
+     * Notified of registration outcomes.
+     */
+    interface Listener {
+        /**
+         * Called for every successful registration, including one that succeeds after its timeout.
+         */
+        void onRegistered(SourceKey key, String contextType);
+
+        /**
+         * Called once, after every registration has succeeded, failed or timed out.
+         *
+         * @param registered The number of sources registered in time
+         * @param failed     The number of sources that failed or timed out
+         */
+        void onComplete(int registered, int failed);
+    }
+
+    private final List<Registration> registrations;
+    private final int maxParallel;
+    private final long timeout;
+    private final Registrar registrar;
+    private final Listener listener;
+    private final ScheduledExecutorService executor;
+    // Guarded by this
+    private int next;
+    private int ended;
+    private int registered;
+    private boolean completed;
+    private long startTime;
+    private long completionTime;
+
+    /**
+     * @param keys        The sources to register
+     * @param maxParallel The largest number of registrations outstanding at a time
+     * @param timeout     The longest time (ms) one registration may take
+     * @param registrar   Issues the registrations
+     * @param listener    Notified of the outcomes
+     * @param executor    Runs the registration timeouts
+     */
+    RegistrationOrchestrator(List<SourceKey> keys, int maxParallel, long timeout, Registrar registrar,
+                             Listener listener, ScheduledExecutorService executor) {
+        this.registrations = new ArrayList<Registration>(keys.size());
+        for (SourceKey key : keys)
+            registrations.add(new Registration(key));
+        this.maxParallel = Math.max(1, maxParallel);
+        this.timeout = timeout;
+        this.registrar = registrar;
+        this.listener = listener;
+        this.executor = executor;
+    }
+
+    /**
+     * Issues the first registrations. Completes immediately if there is nothing to register.
+     */
+    void start() {
+        List<Registration> issued = new ArrayList<Registration>(maxParallel);
+        synchronized (this) {
+            startTime = System.currentTimeMillis();
+            while (next < registrations.size() && next < maxParallel)
+                issued.add(registrations.get(next++));
+        }
+        if (issued.isEmpty())
+            complete();
+        for (Registration registration : issued)
+            issue(registration);
+    }
+
+    /**
+     * Returns the state of the registration at the given index (PENDING, REGISTERING, REGISTERED, FAILED or TIMED_OUT).
+     */
+    synchronized int getState(int index) {
+        return registrations.get(index).state;
+    }
+
+    /**
+     * Returns the last progress (percent) reported for the registration at the given index.
+     */
+    synchronized int getProgress(int index) {
+        return registrations.get(index).progress;
+    }
+
+    SourceKey getKey(int index) {
+        return registrations.get(index).key;
+    }
+
+    int size() {
+        return registrations.size();
+    }
+
+    synchronized boolean isCompleted() {
+        return completed;
+    }
+
+    /**
+     * Returns the time (ms) from start until every registration had ended, or -1 while registrations are outstanding.
+     */
+    synchronized long getDuration() {
+        return completed ? completionTime - startTime : -1;
+    }
+
+    private void issue(final Registration registration) {
+        synchronized (this) {
+            registration.state = REGISTERING;
+        }
+        registration.timeout = executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                end(registration, TIMED_OUT);
+            }
+        }, timeout, TimeUnit.MILLISECONDS);
+        try {
+            registrar.register(registration.key, registration);
+        } catch (Exception e) {
+            OceanLog.w(TAG, "Registering {} failed: {}", registration.key, e);
+            end(registration, FAILED);
+        }
+    }
+
+    /*
+     * Ends a registration that is still outstanding and issues the next pending one.
+     */
+    private void end(Registration registration, int state) {
+        Registration following = null;
+        boolean done;
+        synchronized (this) {
+            if (registration.state != REGISTERING)
+                return;
+            registration.state = state;
+            if (state == REGISTERED)
+                registered++;
+            ended++;
+            if (next < registrations.size())
+                following = registrations.get(next++);
+            done = ended == registrations.size();
+        }
+        ScheduledFuture<?> task = registration.timeout;
+        if (task != null && state != TIMED_OUT)
+            task.cancel(false);
+        if (state == TIMED_OUT)
+            OceanLog.w(TAG, "Registering {} timed out", registration.key);
+        if (following != null)
+            issue(following);
+        if (done)
+            complete();
+    }
+
+    private void complete() {
+        int succeeded;
+        synchronized (this) {
+            if (completed)
+                return;
+            completed = true;
+            completionTime = System.currentTimeMillis();
+            succeeded = registered;
+        }
+        OceanLog.i(TAG, "Registered {} of {} sources", succeeded, registrations.size());
+        listener.onComplete(succeeded, registrations.size() - succeeded);
+    }
+
+    /*
+     * The state of one source, and the callback its registration reports to.
+     */
+    private class Registration implements Callback {
+        final SourceKey key;
+        // Guarded by the orchestrator
+        int state = PENDING;
+        int progress;
+        volatile ScheduledFuture<?> timeout;
+
+        Registration(SourceKey key) {
+            this.key = key;
+        }
+
+        @Override
+        public void onProgress(int percent) {
+            synchronized (RegistrationOrchestrator.this) {
+                progress = percent;
+            }
+        }
+
+        @Override
+        public void onSuccess(String contextType) {
+            // Before ending, so that the route exists by the time the listener hears of completion
+            listener.onRegistered(key, contextType);
+            end(this, REGISTERED);
+        }
+
+        @Override
+        public void onFailure(String message, int errorCode) {
+            OceanLog.w(TAG, "Registering {} failed: {} | Error code: {}", key, message, errorCode);
+            end(this, FAILED);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) The Ambient Dynamix Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.ocean;
+
+import org.ambientdynamix.api.application.IContextInfo;
+
+/**
+ * Extracts the numeric fields of one context type from the IContextInfo of its results.
+ *
+ * @author Nirandika Wanigasekara
+ */
+interface ResultDecoder {
+    String[] NO_FIELDS = new String[0];
+    double[] NO_VALUES = new double[0];
+
+    /**
+     * Returns the context type this decoder handles.
+     */
+    String getContextType();
+
+    /**
+     * Returns the names of the decoded fields. The array is shared and must not be modified.
+     */
+    String[] getFieldNames();
+
+    /**
+     * Returns the values of the fields in the order of getFieldNames, or null if the info cannot be decoded.
+     */
+    double[] decode(IContextInfo info);
+}
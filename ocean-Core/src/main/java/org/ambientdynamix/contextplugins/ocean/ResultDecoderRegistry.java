@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) The Ambient Dynamix Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.ocean;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.ambientdynamix.api.application.IContextInfo;
+
+/**
+ * The ResultDecoders ocean knows, keyed by context type. Results of context types without a decoder are kept as text
+ * only.
+ *
+ * @author Nirandika Wanigasekara
+ */
+class ResultDecoderRegistry {
+    static final String BATTERY_LEVEL_TYPE = "org.ambientdynamix.contextplugins.batterylevel";
+    static final String AMBIENT_SOUND_TYPE = "org.ambientdynamix.contextplugins.ambientsound";
+    static final String LUX_VALUE_TYPE = "org.ambientdynamix.contextplugins.photodetector.luxvalue";
+
+    private final ConcurrentHashMap<String, ResultDecoder> decoders = new ConcurrentHashMap<String, ResultDecoder>();
+
+    /**
+     * Creates a registry holding the decoders of the plugins bundled with ocean.
+     */
+    static ResultDecoderRegistry withBundledDecoders() {
+        ResultDecoderRegistry registry = new ResultDecoderRegistry();
+        registry.register(new ReflectiveResultDecoder(BATTERY_LEVEL_TYPE,
+                new String[]{"level", "scale", "temperature", "voltage", "plugged", "status", "health", "present"},
+                new String[]{"getBatteryLevel", "getScale", "getTemperature", "getVoltage", "getPlugged", "getStatus",
+                        "getHealth", "isPresent"}));
+        registry.register(new ReflectiveResultDecoder(AMBIENT_SOUND_TYPE,
+                new String[]{"db"}, new String[]{"getDbValue"}));
+        registry.register(new ReflectiveResultDecoder(LUX_VALUE_TYPE,
+                new String[]{"lux"}, new String[]{"getLuxValue"}));
+        return registry;
+    }
+
+    /**
+     * Adds a decoder, replacing any decoder registered for the same context type.
+     */
+    void register(ResultDecoder decoder) {
+        decoders.put(decoder.getContextType(), decoder);
+    }
+
+    ResultDecoder get(String contextType) {
+        return decoders.get(contextType);
+    }
+
+    /**
+     * Copies a result into a SourceResult, with its decoded fields if a decoder is registered for its context type.
+     */
+    SourceResult toSourceResult(String pluginId, String contextType, long timeStamp, long expireTime, String payload,
+                                IContextInfo info) {
+        ResultDecoder decoder = info != null ? decoders.get(contextType) : null;
+        double[] values = decoder != null ? decoder.decode(info) : null;
+        if (values == null)
+            return new SourceResult(pluginId, contextType, timeStamp, expireTime, payload);
+        return new SourceResult(pluginId, contextType, timeStamp, expireTime, payload, decoder.getFieldNames(), values);
+    }
+}
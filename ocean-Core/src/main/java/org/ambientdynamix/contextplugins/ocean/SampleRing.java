@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) The Ambient Dynamix Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.ocean;
+
+/**
+ * Fixed-capacity ring buffer of (time, value) samples of one numeric field, held in two primitive arrays. Once full,
+ * each new sample overwrites the oldest, so adding never allocates.
+ *
+ * @author Nirandika Wanigasekara
+ */
+class SampleRing {
+    private final long[] times;
+    private final double[] values;
+    // Index of the next sample to write
+    private int next;
+    private int count;
+
+    SampleRing(int capacity) {
+        times = new long[capacity];
+        values = new double[capacity];
+    }
+
+    synchronized void add(long time, double value) {
+        times[next] = time;
+        values[next] = value;
+        next = (next + 1) % times.length;
+        if (count < times.length)
+            count++;
+    }
+
+    synchronized int size() {
+        return count;
+    }
+
+    /**
+     * Aggregates the samples with from <= time < to.
+     *
+     * @param result Receives the value and sample count; see WindowSpec for the functions
+     */
+    synchronized void aggregate(long from, long to, int function, double[] result) {
+        int samples = 0;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        double sum = 0;
+        long firstTime = Long.MAX_VALUE;
+        long lastTime = Long.MIN_VALUE;
+        double firstValue = 0;
+        double lastValue = 0;
+        for (int i = 0; i < count; i++) {
+            long time = times[i];
+            if (time < from || time >= to)
+                continue;
+            double value = values[i];
+            if (Double.isNaN(value))
+                continue;
+            samples++;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            sum += value;
+            if (time < firstTime) {
+                firstTime = time;
+                firstValue = value;
+            }
+            if (time >= lastTime) {
+                lastTime = time;
+                lastValue = value;
+            }
+        }
+        result[1] = samples;
+        if (samples == 0) {
+            result[0] = function == WindowSpec.COUNT ? 0 : Double.NaN;
+            return;
+        }
+        switch (function) {
+            case WindowSpec.COUNT:
+                result[0] = samples;
+                break;
+            case WindowSpec.MIN:
+                result[0] = min;
+                break;
+            case WindowSpec.MAX:
+                result[0] = max;
+                break;
+            case WindowSpec.MEAN:
+                result[0] = sum / samples;
+                break;
+            default:
+                result[0] = lastTime > firstTime ? (lastValue - firstValue) * 60000.0 / (lastTime - firstTime)
+                        : Double.NaN;
+                break;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) The Ambient Dynamix Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.ocean;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Collects the responses of one scatter-gather round. Every context request sent to a plugin counts as one pending
+ * response; the aggregate completes exactly once, either when all responses have arrived or when the deadline passes.
+ * Snapshot requests arriving while the round is in flight attach to it and are answered from the same responses.
+ *
+ * @author Nirandika Wanigasekara
+ */
+class SnapshotAggregate {
+
+    /**
+     * Notified once when the aggregate completes.
+     */
+    interface CompletionListener {
+        /**
+         * @param aggregate The completed aggregate
+         * @param timedOut  True if the deadline passed before all responses arrived
+         */
+        void onComplete(SnapshotAggregate aggregate, boolean timedOut);
+    }
+
+    private final List<SnapshotRequest> requests = new ArrayList<SnapshotRequest>();
+    // The sources collected by this round: those of the request that started it
+    private final SnapshotProjection projection;
+    private final CompletionListener listener;
+    // Starts at one so that responses arriving while requests are still being dispatched cannot complete the round
+    private final AtomicInteger pending = new AtomicInteger(1);
+    private final AtomicBoolean completed = new AtomicBoolean();
+    private final ConcurrentLinkedQueue<SourceResult> results = new ConcurrentLinkedQueue<SourceResult>();
+    private final AtomicInteger failures = new AtomicInteger();
+    private final ConcurrentLinkedQueue<SourceKey> skipped = new ConcurrentLinkedQueue<SourceKey>();
+    private final long startTime = System.currentTimeMillis();
+    private volatile Future<?> deadline;
+
+    /**
+     * @param request  The request that started the round
+     * @param listener Notified once when the aggregate completes
+     */
+    SnapshotAggregate(SnapshotRequest request, CompletionListener listener) {
+        this.requests.add(request);
+        this.projection = request.getProjection();
+        this.listener = listener;
+    }
+
+    SnapshotProjection getProjection() {
+        return projection;
+    }
+
+    /**
+     * Attaches another request to this round.
+     *
+     * @return False if the round has already completed or does not collect every source the request needs, in which
+     * case the request must start a new round
+     */
+    synchronized boolean attach(SnapshotRequest request) {
+        if (completed.get() || !projection.covers(request.getProjection()))
+            return false;
+        requests.add(request);
+        return true;
+    }
+
+    /**
+     * Returns the requests answered by this round. Only stable once the aggregate has completed.
+     */
+    synchronized List<SnapshotRequest> getRequests() {
+        return new ArrayList<SnapshotRequest>(requests);
+    }
+
+    long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * Sets the scheduled deadline task, which is cancelled as soon as the aggregate completes.
+     */
+    void setDeadline(Future<?> deadline) {
+        this.deadline = deadline;
+        if (completed.get())
+            deadline.cancel(false);
+    }
+
+    /**
+     * Registers one more outstanding response. Must be called before the request is dispatched.
+     */
+    void expect() {
+        pending.incrementAndGet();
+    }
+
+    /**
+     * Records a successful response.
+     */
+    void onResult(SourceResult result) {
+        if (completed.get())
+            return;
+        results.add(result);
+        countDown();
+    }
+
+    /**
+     * Records a failed (or undeliverable) response.
+     */
+    void onFailure() {
+        failures.incrementAndGet();
+        countDown();
+    }
+
+    /**
+     * Records a source that was not waited for: its circuit breaker is open or it did not answer in time.
+     */
+    void onSkipped(SourceKey key) {
+        skipped.add(key);
+        countDown();
+    }
+
+    /**
+     * Called once dispatching has finished. Completes immediately if nothing is outstanding (e.g. no plugins were
+     * requested or every response was already delivered synchronously).
+     */
+    void seal() {
+        countDown();
+    }
+
+    /**
+     * Called when the deadline passes. Completes with whatever has been collected so far.
+     */
+    void expire() {
+        complete(true);
+    }
+
+    boolean isCompleted() {
+        return completed.get();
+    }
+
+    int getFailureCount() {
+        return failures.get();
+    }
+
+    /**
+     * Returns a copy of the sources skipped so far.
+     */
+    List<SourceKey> getSkipped() {
+        return new ArrayList<SourceKey>(skipped);
+    }
+
+    /**
+     * Returns a copy of the results collected so far.
+     */
+    List<SourceResult> getResults() {
+        return new ArrayList<SourceResult>(results);
+    }
+
+    private void countDown() {
+        if (pending.decrementAndGet() == 0)
+            complete(false);
+    }
+
+    private void complete(boolean timedOut) {
+        synchronized (this) {
+            // Under the lock, so that no request can attach after the completed round has been answered
+            if (!completed.compareAndSet(false, true))
+                return;
+        }
+        Future<?> task = deadline;
+        if (task != null && !timedOut)
+            task.cancel(false);
+        listener.onComplete(this, timedOut);
+    }
+}
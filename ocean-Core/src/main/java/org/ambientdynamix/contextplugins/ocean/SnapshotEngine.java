@@ -0,0 +1,642 @@
+/*
+ * Copyright (C) The Ambient Dynamix Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.ocean;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.ambientdynamix.api.contextplugin.PowerScheme;
+
+/**
+ * The snapshot pipeline of ocean: routing, result cache, snapshot store, background refreshes and the scatter-gather
+ * rounds that answer snapshot requests. The engine does not depend on the Dynamix framework or Android; context
+ * requests go out through a ContextDispatcher and snapshots are delivered to a SnapshotSink, which oceanRuntime
+ * implements on top of its ContextHandler and sendContextEvent.
+ *
+ * @author Nirandika Wanigasekara
+ */
+class SnapshotEngine {
+
+    /**
+     * Sends context requests to other plugins.
+     */
+    interface ContextDispatcher {
+        /**
+         * Returns true once context requests can be sent.
+         */
+        boolean isReady();
+
+        /**
+         * Sends a context request for the route. The callback must be invoked exactly once, unless an exception is
+         * thrown.
+         */
+        void contextRequest(PluginRoute route, ResultCallback callback) throws Exception;
+    }
+
+    /**
+     * Receives the response to one context request.
+     */
+    interface ResultCallback {
+        void onSuccess(SourceResult result);
+
+        void onFailure(String message, int errorCode);
+
+        /**
+         * Called instead of onSuccess or onFailure if ocean could not process the response itself, e.g. on callback
+         * overflow. The source is not charged for it.
+         */
+        void onDropped();
+    }
+
+    /**
+     * Delivers finished snapshots to clients.
+     */
+    interface SnapshotSink {
+        void sendSnapshot(UUID requestId, MyContextSnapShot snapShot);
+    }
+
+    private final ContextDispatcher dispatcher;
+    private final SnapshotSink sink;
+    private final ScheduledExecutorService executor;
+    private final ContextResultCache resultCache;
+    private final SnapshotStore snapshotStore = new SnapshotStore();
+    private volatile PluginRoutingTable routingTable = PluginRoutingTable.EMPTY;
+    private final Object routingLock = new Object();
+    private volatile long snapshotDeadline;
+    // The snapshot round currently collecting responses, guarded by snapshotLock
+    private SnapshotAggregate inFlight;
+    private final Object snapshotLock = new Object();
+    private final InvocationScheduler invocationScheduler;
+    private final OceanMetrics metrics = new OceanMetrics();
+    private volatile HistoryLog historyLog;
+    private volatile WindowAggregator windowAggregator;
+    private volatile SnapshotStreamer streamer;
+    private volatile Executor refreshExecutor;
+
+    /**
+     * @param dispatcher       Sends the context requests
+     * @param sink             Receives the finished snapshots
+     * @param executor         Runs snapshot deadlines and background refreshes
+     * @param resultCacheSize  The number of sources kept in the result cache
+     * @param snapshotDeadline The longest time (ms) a snapshot waits for responses
+     * @param maxStaleness     The longest time (ms) a pull-only source may go without a background refresh
+     */
+    SnapshotEngine(ContextDispatcher dispatcher, SnapshotSink sink, ScheduledExecutorService executor,
+                   int resultCacheSize, long snapshotDeadline, long maxStaleness) {
+        this.dispatcher = dispatcher;
+        this.sink = sink;
+        this.executor = executor;
+        this.resultCache = new ContextResultCache(resultCacheSize);
+        this.snapshotDeadline = snapshotDeadline;
+        this.invocationScheduler = new InvocationScheduler(new InvocationScheduler.Target() {
+            @Override
+            public PluginRoute[] getRoutes() {
+                return routingTable.getRoutes();
+            }
+
+            @Override
+            public void refresh(List<PluginRoute> due) {
+                refreshRoutes(due);
+            }
+        }, maxStaleness);
+    }
+
+    ContextResultCache getResultCache() {
+        return resultCache;
+    }
+
+    SnapshotStore getSnapshotStore() {
+        return snapshotStore;
+    }
+
+    OceanMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns a copy of the current metrics for clients of the METRICS context type.
+     */
+    OceanMetricsInfo getMetricsInfo() {
+        return metrics.toInfo(resultCache);
+    }
+
+    /**
+     * Sets the log every received result and every full snapshot is appended to, or null to keep no history.
+     */
+    void setHistoryLog(HistoryLog historyLog) {
+        this.historyLog = historyLog;
+    }
+
+    /**
+     * Sets the aggregation stage every received result is fed to, or null to aggregate nothing.
+     */
+    void setWindowAggregator(WindowAggregator windowAggregator) {
+        this.windowAggregator = windowAggregator;
+    }
+
+    WindowAggregator getWindowAggregator() {
+        return windowAggregator;
+    }
+
+    /**
+     * Sets the stage that pushes snapshots to subscribed listeners on every store change, or null to push nothing.
+     */
+    void setSnapshotStreamer(SnapshotStreamer streamer) {
+        this.streamer = streamer;
+    }
+
+    SnapshotStreamer getSnapshotStreamer() {
+        return streamer;
+    }
+
+    /**
+     * Sets the executor issuing the background refreshes, which may block on the dispatcher. Until set, refreshes run
+     * on the engine's scheduled executor.
+     */
+    void setRefreshExecutor(Executor refreshExecutor) {
+        this.refreshExecutor = refreshExecutor;
+    }
+
+    PluginRoutingTable getRoutingTable() {
+        return routingTable;
+    }
+
+    void setSnapshotDeadline(long snapshotDeadline) {
+        this.snapshotDeadline = snapshotDeadline;
+    }
+
+    void setMaxStaleness(long maxStaleness) {
+        invocationScheduler.setMaxStaleness(maxStaleness);
+    }
+
+    void setPowerScheme(PowerScheme powerScheme) {
+        invocationScheduler.setPowerScheme(powerScheme);
+    }
+
+    /**
+     * Starts the background refreshes; the first wake-up window requests every pull-only route.
+     */
+    void startScheduling() {
+        Executor refresher = refreshExecutor;
+        invocationScheduler.start(executor, refresher != null ? refresher : executor);
+    }
+
+    void stopScheduling() {
+        invocationScheduler.stop();
+    }
+
+    /**
+     * Stops the background refreshes and forgets all routes and results.
+     */
+    void shutdown() {
+        stopScheduling();
+        SnapshotStreamer streamer = this.streamer;
+        if (streamer != null)
+            streamer.shutdown();
+        resultCache.clear();
+        snapshotStore.clear();
+        setRoutingTable(PluginRoutingTable.EMPTY);
+    }
+
+    /**
+     * Scatters the requests to all routes and gathers the responses into an aggregate. The snapshot is delivered to
+     * the sink once every response is in or the deadline has passed. A request arriving while a round is in flight
+     * attaches to that round instead of starting its own fan-out, if the round collects every source the request's
+     * projection includes. A projected request only fans out to the routes of its context types.
+     */
+    void requestSnapshot(SnapshotRequest request) {
+        final SnapshotAggregate aggregate;
+        synchronized (snapshotLock) {
+            if (inFlight != null && inFlight.attach(request))
+                return;
+            aggregate = new SnapshotAggregate(request, snapshotCompletion);
+            // Keep the broader round open for attaching
+            if (inFlight == null || inFlight.isCompleted() || aggregate.getProjection().covers(inFlight.getProjection()))
+                inFlight = aggregate;
+        }
+        aggregate.setDeadline(executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                aggregate.expire();
+            }
+        }, snapshotDeadline, TimeUnit.MILLISECONDS));
+        invokePlugins(aggregate);
+    }
+
+    /**
+     * Sends a context request to every route of the routing table included by the aggregate's projection and reports
+     * each response to the given aggregate.
+     * Auto-reactive sources with a valid pushed value in the snapshot store, and sources with an unexpired result in
+     * the result cache, are answered from memory instead of a new context request. Sources whose circuit breaker is
+     * open are skipped. All requests are dispatched before
+     * any response is awaited; the aggregate is sealed once dispatching is done, so it always completes. A null
+     * aggregate fires the requests without collecting results.
+     *
+     * @return False if the dispatcher is not ready
+     */
+    boolean invokePlugins(SnapshotAggregate aggregate) {
+        try {
+            if (!dispatcher.isReady())
+                return false;
+            long now = System.currentTimeMillis();
+            for (PluginRoute route : routingTable.getRoutes()) {
+                if (aggregate != null && !aggregate.getProjection().includes(route.getContextType()))
+                    continue;
+                SourceResult cached = route.isAutoReactive() ? snapshotStore.getValid(route.getKey(), now) : null;
+                if (cached == null)
+                    cached = resultCache.getFresh(route.getKey(), now);
+                if (aggregate != null) {
+                    aggregate.expect();
+                    if (cached != null) {
+                        aggregate.onResult(cached);
+                        continue;
+                    }
+                } else if (cached != null) {
+                    continue;
+                }
+                if (!route.getHealth().allowRequest(now)) {
+                    if (aggregate != null)
+                        aggregate.onSkipped(route.getKey());
+                    continue;
+                }
+                dispatch(route, aggregate);
+            }
+            return true;
+        } finally {
+            if (aggregate != null)
+                aggregate.seal();
+        }
+    }
+
+    /**
+     * Stores a result pushed by an AUTO_REACTIVE plugin and marks its route as auto-reactive. Pushes of sources that
+     * are not (or no longer) routed are ignored.
+     */
+    void onPushed(SourceResult result) {
+        SourceKey key = new SourceKey(result.getPluginId(), result.getContextType());
+        PluginRoute route = routingTable.get(key);
+        if (route == null)
+            return;
+        route.setAutoReactive(true);
+        metrics.forSource(key).onPush(System.currentTimeMillis());
+        if (accept(key, result, false))
+            record(result);
+    }
+
+    /**
+     * Replaces the routing table, e.g. after the installed plugins were queried.
+     */
+    void setRoutingTable(PluginRoutingTable table) {
+        synchronized (routingLock) {
+            routingTable = table;
+        }
+    }
+
+    /**
+     * Adds the context type of a newly installed (or newly supported) plugin to the routing table.
+     */
+    void onPluginInstalled(String pluginId, String contextType) {
+        synchronized (routingLock) {
+            routingTable = routingTable.withPlugin(pluginId, Collections.singletonList(contextType));
+        }
+    }
+
+    /**
+     * Adds the context types of a plugin to the routing table.
+     */
+    void onPluginInstalled(String pluginId, Collection<String> contextTypes) {
+        synchronized (routingLock) {
+            routingTable = routingTable.withPlugin(pluginId, contextTypes);
+        }
+    }
+
+    /**
+     * Removes all routes of an uninstalled plugin and forgets its results.
+     */
+    void onPluginUninstalled(String pluginId) {
+        List<SourceKey> removed = new ArrayList<SourceKey>();
+        synchronized (routingLock) {
+            PluginRoutingTable previous = routingTable;
+            // Unroute first, so a result still in flight either sees the route gone or is removed below
+            routingTable = previous.withoutPlugin(pluginId);
+            for (PluginRoute route : previous.getRoutes()) {
+                if (!route.getPluginId().equals(pluginId))
+                    continue;
+                resultCache.remove(route.getKey());
+                if (snapshotStore.remove(route.getKey()))
+                    removed.add(route.getKey());
+            }
+        }
+        for (SourceKey key : removed)
+            changed(key);
+    }
+
+    /**
+     * Removes the route of a source whose context support was released and forgets its results.
+     */
+    void onSourceReleased(SourceKey key) {
+        boolean removed;
+        synchronized (routingLock) {
+            routingTable = routingTable.withoutSource(key);
+            resultCache.remove(key);
+            removed = snapshotStore.remove(key);
+        }
+        if (removed)
+            changed(key);
+    }
+
+    /*
+     * Writes a received result into the snapshot store (and, if cache is set, the result cache) unless its source is no
+     * longer routed. Returns false if the result was ignored. A source released while the result is written is
+     * forgotten again, since its release may have cleared the store before the write landed.
+     */
+    private boolean accept(SourceKey key, SourceResult result, boolean cache) {
+        if (routingTable.get(key) == null)
+            return false;
+        if (cache)
+            resultCache.put(key, result);
+        store(key, result);
+        if (routingTable.get(key) != null)
+            return true;
+        resultCache.remove(key);
+        if (snapshotStore.remove(key))
+            changed(key);
+        return false;
+    }
+
+    /*
+     * Writes a received result into the snapshot store, telling the streamer if the source changed.
+     */
+    private void store(SourceKey key, SourceResult result) {
+        if (snapshotStore.update(key, result))
+            changed(key);
+    }
+
+    /*
+     * Tells the streamer that the store stamped a new version for the source.
+     */
+    private void changed(SourceKey key) {
+        SnapshotStreamer streamer = this.streamer;
+        if (streamer != null)
+            streamer.onChanged(key);
+    }
+
+    /*
+     * Feeds a received result to the history log and the aggregation stage.
+     */
+    private void record(SourceResult result) {
+        HistoryLog history = historyLog;
+        if (history != null)
+            history.append(result);
+        WindowAggregator aggregator = windowAggregator;
+        if (aggregator != null)
+            aggregator.onResult(result);
+    }
+
+    /*
+     * Called by the InvocationScheduler to refresh the routes that fell due in the current wake-up window.
+     */
+    private void refreshRoutes(List<PluginRoute> due) {
+        if (!dispatcher.isReady())
+            return;
+        long now = System.currentTimeMillis();
+        for (PluginRoute route : due) {
+            if (route.getHealth().allowRequest(now))
+                dispatch(route, null);
+        }
+    }
+
+    /*
+     * Sends one context request and records its response in the result cache, the snapshot store, the route and (if
+     * not null) the aggregate, which must already expect the response. If no response arrives within the source's
+     * timeout, the request counts as failed and the aggregate records the source as skipped; a late success is still
+     * stored and cached and its latency recorded, but it is neither counted as a success nor reported to the aggregate
+     * or the circuit breaker. A response for a source released in the meantime is not stored, and the aggregate
+     * records the source as skipped. A response dropped by ocean itself records the source
+     * as skipped without counting against it, and hands a half-open probe back to the circuit breaker.
+     */
+    private void dispatch(final PluginRoute route, final SnapshotAggregate aggregate) {
+        final SourceMetrics sourceMetrics = metrics.forSource(route.getKey());
+        final SourceHealth health = route.getHealth();
+        final long dispatchTime = System.currentTimeMillis();
+        // Set by whichever of response, failure and timeout comes first
+        final AtomicBoolean answered = new AtomicBoolean();
+        sourceMetrics.onRequest();
+        final Future<?> timeout = executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (!answered.compareAndSet(false, true))
+                    return;
+                sourceMetrics.onFailure();
+                health.onFailure(System.currentTimeMillis(), dispatchTime);
+                if (aggregate != null)
+                    aggregate.onSkipped(route.getKey());
+            }
+        }, health.getTimeout(sourceMetrics.getLatency(), snapshotDeadline), TimeUnit.MILLISECONDS);
+        try {
+            dispatcher.contextRequest(route, new ResultCallback() {
+                @Override
+                public void onSuccess(SourceResult result) {
+                    boolean inTime = answered.compareAndSet(false, true);
+                    timeout.cancel(false);
+                    long latency = System.currentTimeMillis() - dispatchTime;
+                    route.setLastLatency(latency);
+                    if (inTime) {
+                        sourceMetrics.onSuccess(latency);
+                        health.onSuccess();
+                    } else {
+                        // Already counted as failed; only its latency is kept, so the timeout tracks the real latency
+                        sourceMetrics.onLateResponse(latency);
+                    }
+                    if (accept(route.getKey(), result, true)) {
+                        invocationScheduler.onResult(route, result);
+                        record(result);
+                        if (inTime && aggregate != null)
+                            aggregate.onResult(result);
+                    } else if (inTime && aggregate != null) {
+                        // Released while the request was out: it must not come back into the snapshot
+                        aggregate.onSkipped(route.getKey());
+                    }
+                }
+
+                @Override
+                public void onFailure(String message, int errorCode) {
+                    failed(answered, timeout, sourceMetrics, health, aggregate, dispatchTime);
+                }
+
+                @Override
+                public void onDropped() {
+                    if (!answered.compareAndSet(false, true))
+                        return;
+                    timeout.cancel(false);
+                    // Neither a success nor a failure, but a probe must be handed back or the breaker never closes
+                    health.onAbandoned(System.currentTimeMillis(), dispatchTime);
+                    if (aggregate != null)
+                        aggregate.onSkipped(route.getKey());
+                }
+            });
+        } catch (Exception e) {
+            failed(answered, timeout, sourceMetrics, health, aggregate, dispatchTime);
+        }
+    }
+
+    private static void failed(AtomicBoolean answered, Future<?> timeout, SourceMetrics sourceMetrics,
+                               SourceHealth health, SnapshotAggregate aggregate, long dispatchTime) {
+        if (!answered.compareAndSet(false, true))
+            return;
+        timeout.cancel(false);
+        sourceMetrics.onFailure();
+        health.onFailure(System.currentTimeMillis(), dispatchTime);
+        if (aggregate != null)
+            aggregate.onFailure();
+    }
+
+    /*
+     * Delivers the snapshot to every request answered by a completed round.
+     */
+    private final SnapshotAggregate.CompletionListener snapshotCompletion = new SnapshotAggregate.CompletionListener() {
+        @Override
+        public void onComplete(SnapshotAggregate aggregate, boolean timedOut) {
+            synchronized (snapshotLock) {
+                if (inFlight == aggregate)
+                    inFlight = null;
+            }
+            metrics.onSnapshot(timedOut);
+            List<SourceResult> results = aggregate.getResults();
+            List<SourceKey> skipped = aggregate.getSkipped();
+            // Read the version first, so the snapshot never claims changes it does not contain
+            long version = snapshotStore.getVersion();
+            MyContextSnapShot full = null;
+            for (SnapshotRequest request : aggregate.getRequests()) {
+                MyContextSnapShot snapShot;
+                SnapshotProjection projection = request.getProjection();
+                if (request.isDelta()) {
+                    snapShot = buildDelta(projection, request.getSinceVersion(), skipped, version);
+                } else {
+                    List<SourceResult> included = projection.isAll() ? results : projection.apply(results);
+                    List<SourceKey> includedSkipped = skipped(projection, skipped);
+                    long contentHash = contentHash(included, includedSkipped);
+                    if (request.isKnown(contentHash)) {
+                        // The client has this content already: spare building, sending and parsing it again
+                        snapShot = MyContextSnapShot.notModified(version, contentHash);
+                    } else if (projection.isAll()) {
+                        if (full == null)
+                            full = buildSnapShot(results, skipped, version, false);
+                        snapShot = full;
+                    } else {
+                        snapShot = buildSnapShot(included, includedSkipped, version, false);
+                    }
+                }
+                sink.sendSnapshot(request.getRequestId(), snapShot);
+                metrics.onSnapshotSent(snapShot.getEntryCount(), System.currentTimeMillis());
+            }
+            HistoryLog history = historyLog;
+            if (history != null)
+                history.append(full != null ? full : buildSnapShot(results, skipped, version, false));
+        }
+    };
+
+    /*
+     * Builds a delta snapshot of the sources that changed after sinceVersion. A changed source whose result has expired
+     * since is sent as removed, as it would be left out of a full snapshot.
+     */
+    private MyContextSnapShot buildDelta(SnapshotProjection projection, long sinceVersion, List<SourceKey> skipped,
+                                         long version) {
+        long now = System.currentTimeMillis();
+        List<SourceResult> changed = new ArrayList<SourceResult>();
+        List<SourceKey> removed = snapshotStore.removedSince(sinceVersion);
+        for (SourceResult result : snapshotStore.changedSince(sinceVersion)) {
+            if (SnapshotStore.isValid(result, now))
+                changed.add(result);
+            else
+                removed.add(new SourceKey(result.getPluginId(), result.getContextType()));
+        }
+        return buildSnapShot(projection.apply(changed), skipped(projection, skipped), skipped(projection, removed),
+                version);
+    }
+
+    /*
+     * Builds a full snapshot with one entry per result.
+     */
+    private static MyContextSnapShot buildSnapShot(List<SourceResult> results, List<SourceKey> skipped, long version,
+                                                   boolean delta) {
+        return new MyContextSnapShot(toEntries(results), pluginIds(skipped), contextTypes(skipped), version, delta);
+    }
+
+    /*
+     * Builds a delta snapshot with one entry per changed result, telling the client to drop the removed sources.
+     */
+    private static MyContextSnapShot buildSnapShot(List<SourceResult> results, List<SourceKey> skipped,
+                                                   List<SourceKey> removed, long version) {
+        return new MyContextSnapShot(toEntries(results), pluginIds(skipped), contextTypes(skipped),
+                pluginIds(removed), contextTypes(removed), version);
+    }
+
+    private static List<SnapShotEntry> toEntries(List<SourceResult> results) {
+        List<SnapShotEntry> entries = new ArrayList<SnapShotEntry>(results.size());
+        for (SourceResult result : results)
+            entries.add(result.toEntry());
+        return entries;
+    }
+
+    private static String[] pluginIds(List<SourceKey> keys) {
+        String[] pluginIds = new String[keys.size()];
+        for (int i = 0; i < pluginIds.length; i++)
+            pluginIds[i] = keys.get(i).getPluginId();
+        return pluginIds;
+    }
+
+    private static String[] contextTypes(List<SourceKey> keys) {
+        String[] contextTypes = new String[keys.size()];
+        for (int i = 0; i < contextTypes.length; i++)
+            contextTypes[i] = keys.get(i).getContextType();
+        return contextTypes;
+    }
+
+    /*
+     * Returns the content hash of the snapshot buildSnapShot would build from the results and skipped sources.
+     */
+    private static long contentHash(List<SourceResult> results, List<SourceKey> skipped) {
+        long hash = ContentHash.NONE;
+        for (SourceResult result : results)
+            hash = ContentHash.combine(hash, result.getContentHash());
+        for (SourceKey key : skipped)
+            hash = ContentHash.combine(hash, ContentHash.ofSkipped(key.getPluginId(), key.getContextType()));
+        return hash;
+    }
+
+    /*
+     * Returns the skipped (or removed) sources whose context type the projection includes.
+     */
+    private static List<SourceKey> skipped(SnapshotProjection projection, List<SourceKey> skipped) {
+        if (projection.isAll() || skipped.isEmpty())
+            return skipped;
+        List<SourceKey> included = new ArrayList<SourceKey>(skipped.size());
+        for (SourceKey key : skipped) {
+            if (projection.includes(key.getContextType()))
+                included.add(key);
+        }
+        return included;
+    }
+}
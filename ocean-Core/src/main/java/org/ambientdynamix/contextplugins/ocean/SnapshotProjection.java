@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) The Ambient Dynamix Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.ocean;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The part of the snapshot a client asked for: a set of context types, and optionally for some of them the decoded
+ * fields to keep. Only the routes of the projected context types are requested. Entries of a context type with
+ * projected fields carry only those fields and no text payload.
+ *
+ * @author Nirandika Wanigasekara
+ */
+class SnapshotProjection {
+    // Projection of a request that names nothing: every source with every field
+    static final SnapshotProjection ALL = new SnapshotProjection(null, Collections.<String, Set<String>>emptyMap());
+
+    // Null for all context types
+    private final Set<String> contextTypes;
+    private final Map<String, Set<String>> fields;
+
+    private SnapshotProjection(Set<String> contextTypes, Map<String, Set<String>> fields) {
+        this.contextTypes = contextTypes;
+        this.fields = fields;
+    }
+
+    /**
+     * Creates a projection. The context types of the fields are included even if they are not listed in
+     * contextTypes.
+     *
+     * @param contextTypes The context types to include, or null
+     * @param fields       The fields to keep, each as "contextType:field", or null
+     * @return ALL if both are null or empty
+     * @throws IllegalArgumentException If a field is not of the form "contextType:field"
+     */
+    static SnapshotProjection of(String[] contextTypes, String[] fields) {
+        if ((contextTypes == null || contextTypes.length == 0) && (fields == null || fields.length == 0))
+            return ALL;
+        Set<String> types = new HashSet<String>();
+        if (contextTypes != null)
+            Collections.addAll(types, contextTypes);
+        Map<String, Set<String>> kept = new HashMap<String, Set<String>>();
+        if (fields != null) {
+            for (String field : fields) {
+                int separator = field.lastIndexOf(':');
+                if (separator <= 0 || separator == field.length() - 1)
+                    throw new IllegalArgumentException("Malformed field " + field);
+                String contextType = field.substring(0, separator);
+                types.add(contextType);
+                Set<String> names = kept.get(contextType);
+                if (names == null) {
+                    names = new HashSet<String>();
+                    kept.put(contextType, names);
+                }
+                names.add(field.substring(separator + 1));
+            }
+        }
+        return new SnapshotProjection(types, kept);
+    }
+
+    boolean isAll() {
+        return contextTypes == null;
+    }
+
+    /**
+     * Returns the context types included by the projection, or null for all.
+     */
+    Set<String> getContextTypes() {
+        return contextTypes != null ? Collections.unmodifiableSet(contextTypes) : null;
+    }
+
+    /**
+     * Returns true if sources of the context type are part of the projection.
+     */
+    boolean includes(String contextType) {
+        return contextTypes == null || contextTypes.contains(contextType);
+    }
+
+    /**
+     * Returns true if every source included by the other projection is included by this one, so a round collecting
+     * this projection can answer the other.
+     */
+    boolean covers(SnapshotProjection other) {
+        return contextTypes == null || (other.contextTypes != null && contextTypes.containsAll(other.contextTypes));
+    }
+
+    /**
+     * Returns the results included by the projection, with their fields projected.
+     */
+    List<SourceResult> apply(List<SourceResult> results) {
+        if (isAll())
+            return results;
+        List<SourceResult> projected = new ArrayList<SourceResult>(results.size());
+        for (SourceResult result : results) {
+            if (includes(result.getContextType()))
+                projected.add(apply(result));
+        }
+        return projected;
+    }
+
+    /**
+     * Returns the result with only the projected fields, or the result itself if no fields are projected for its
+     * context type.
+     */
+    SourceResult apply(SourceResult result) {
+        Set<String> names = fields.get(result.getContextType());
+        if (names == null)
+            return result;
+        String[] allNames = result.getFieldNames();
+        double[] allValues = result.getFieldValues();
+        int count = 0;
+        for (String name : allNames) {
+            if (names.contains(name))
+                count++;
+        }
+        String[] keptNames = new String[count];
+        double[] keptValues = new double[count];
+        for (int i = 0, kept = 0; i < allNames.length; i++) {
+            if (names.contains(allNames[i])) {
+                keptNames[kept] = allNames[i];
+                keptValues[kept++] = allValues[i];
+            }
+        }
+        return new SourceResult(result.getPluginId(), result.getContextType(), result.getTimeStamp(),
+                result.getExpireTime(), "", keptNames, keptValues);
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) The Ambient Dynamix Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.ocean;
+
+import java.util.UUID;
+
+/**
+ * A client's request for a snapshot: where to send it and what the client asked for.
+ *
+ * @author Nirandika Wanigasekara
+ */
+class SnapshotRequest {
+    // sinceVersion of a request for the full snapshot
+    static final long FULL = -1;
+
+    private final UUID requestId;
+    private final long sinceVersion;
+    private final SnapshotProjection projection;
+    private final long knownHash;
+
+    /**
+     * @param requestId    The request the snapshot is sent to
+     * @param sinceVersion The store version the client already has, or FULL for the full snapshot
+     */
+    SnapshotRequest(UUID requestId, long sinceVersion) {
+        this(requestId, sinceVersion, SnapshotProjection.ALL);
+    }
+
+    /**
+     * @param requestId    The request the snapshot is sent to
+     * @param sinceVersion The store version the client already has, or FULL for the full snapshot
+     * @param projection   The sources and fields the client asked for
+     */
+    SnapshotRequest(UUID requestId, long sinceVersion, SnapshotProjection projection) {
+        this(requestId, sinceVersion, projection, ContentHash.NONE);
+    }
+
+    /**
+     * @param requestId    The request the snapshot is sent to
+     * @param sinceVersion The store version the client already has, or FULL for the full snapshot
+     * @param projection   The sources and fields the client asked for
+     * @param knownHash    The content hash of the snapshot the client already has, or ContentHash.NONE
+     */
+    SnapshotRequest(UUID requestId, long sinceVersion, SnapshotProjection projection, long knownHash) {
+        this.requestId = requestId;
+        this.sinceVersion = sinceVersion;
+        this.projection = projection;
+        this.knownHash = knownHash;
+    }
+
+    UUID getRequestId() {
+        return requestId;
+    }
+
+    /**
+     * True if only the sources changed since getSinceVersion() should be sent.
+     */
+    boolean isDelta() {
+        return sinceVersion != FULL;
+    }
+
+    long getSinceVersion() {
+        return sinceVersion;
+    }
+
+    SnapshotProjection getProjection() {
+        return projection;
+    }
+
+    /**
+     * True if the snapshot need not be sent when its content hash equals the given one.
+     */
+    boolean isKnown(long contentHash) {
+        return knownHash != ContentHash.NONE && knownHash == contentHash && !isDelta();
+    }
+}
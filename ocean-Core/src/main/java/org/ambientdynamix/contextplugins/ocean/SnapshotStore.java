@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) The Ambient Dynamix Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.ocean;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latest known result of every context source, written by push events from AUTO_REACTIVE plugins and by pull
+ * responses, and read lock-free when snapshots are built. Every update stamps its source with the next value of a
+ * monotonically increasing store version, so callers can ask for the sources that changed since a version they saw. A
+ * result with the same content as the stored one replaces it without a new version, so a source that keeps reporting
+ * the same thing does not show up as changed. Removing a source stamps it with a new version as well, so that delta
+ * snapshots can tell clients to drop it.
+ *
+ * @author Nirandika Wanigasekara
+ */
+class SnapshotStore {
+    private final ConcurrentHashMap<SourceKey, Stored> latest = new ConcurrentHashMap<SourceKey, Stored>();
+    // The version each removed source was removed at; dropped again when the source is stored anew
+    private final ConcurrentHashMap<SourceKey, Long> removed = new ConcurrentHashMap<SourceKey, Long>();
+    private final AtomicLong version = new AtomicLong();
+
+    /**
+     * A result together with the store version at which it was stored.
+     */
+    private static class Stored {
+        final SourceResult result;
+        final long version;
+
+        Stored(SourceResult result, long version) {
+            this.result = result;
+            this.version = version;
+        }
+    }
+
+    /**
+     * Stores the result as the latest value of its source, unless a newer result of the source is already stored
+     * (results may be processed out of order by the callback workers).
+     *
+     * @return True if the content of the source changed, i.e. it was stamped with a new version
+     */
+    boolean update(SourceKey key, SourceResult result) {
+        while (true) {
+            Stored current = latest.get(key);
+            if (current != null && current.result.getTimeStamp() > result.getTimeStamp())
+                return false;
+            boolean changed = current == null || current.result.getContentHash() != result.getContentHash();
+            Stored updated = new Stored(result, changed ? version.incrementAndGet() : current.version);
+            if (current == null ? latest.putIfAbsent(key, updated) == null : latest.replace(key, current, updated)) {
+                if (current == null)
+                    removed.remove(key);
+                return changed;
+            }
+        }
+    }
+
+    /**
+     * Returns the version of the most recent update.
+     */
+    long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * Returns the latest value of the source, or null if nothing has been received yet.
+     */
+    SourceResult get(SourceKey key) {
+        Stored stored = latest.get(key);
+        return stored != null ? stored.result : null;
+    }
+
+    /**
+     * Returns the latest value of the source if it is still valid at the given time, otherwise null. Results that do
+     * not expire stay valid until a new one is stored.
+     */
+    SourceResult getValid(SourceKey key, long now) {
+        SourceResult result = get(key);
+        return result != null && isValid(result, now) ? result : null;
+    }
+
+    /**
+     * Returns true if the result has not expired at the given time. Results that do not expire are always valid.
+     */
+    static boolean isValid(SourceResult result, long now) {
+        return result.getExpireTime() == 0 || result.getExpireTime() > now;
+    }
+
+    /**
+     * Returns a copy of the latest value of every source.
+     */
+    List<SourceResult> values() {
+        return changedSince(0);
+    }
+
+    /**
+     * Returns the latest value of every source that was updated after the given version.
+     */
+    List<SourceResult> changedSince(long sinceVersion) {
+        List<SourceResult> changed = new ArrayList<SourceResult>();
+        for (Stored stored : latest.values()) {
+            if (stored.version > sinceVersion)
+                changed.add(stored.result);
+        }
+        return changed;
+    }
+
+    /**
+     * Returns the sources removed after the given version and not stored again since.
+     */
+    List<SourceKey> removedSince(long sinceVersion) {
+        List<SourceKey> keys = new ArrayList<SourceKey>();
+        for (Map.Entry<SourceKey, Long> entry : removed.entrySet()) {
+            if (entry.getValue() > sinceVersion && !latest.containsKey(entry.getKey()))
+                keys.add(entry.getKey());
+        }
+        return keys;
+    }
+
+    /**
+     * Forgets everything known about the source, e.g. after its plugin was uninstalled, and records its removal.
+     *
+     * @return True if a value of the source was stored, i.e. the removal was stamped with a new version
+     */
+    boolean remove(SourceKey key) {
+        if (latest.remove(key) == null)
+            return false;
+        removed.put(key, version.incrementAndGet());
+        return true;
+    }
+
+    void clear() {
+        latest.clear();
+        removed.clear();
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) The Ambient Dynamix Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.ocean;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pushes snapshots to subscribed listeners whenever the snapshot store changes, instead of having them poll (and fan
+ * out) for every update. Snapshots are built from the store alone, never by requesting the plugins. Changes are
+ * coalesced per listener: a push waits until no change has arrived for the listener's debounce window, but no longer
+ * than its maximum staleness after the first unsent change, and never follows the previous push closer than the
+ * listener's minimum interval. A push whose content hash equals that of the previous one is skipped. Expired results
+ * are left out of pushes, just as they are of requested snapshots, and the expiry of a pushed result counts as a
+ * change: since every push is a full snapshot, the listener then drops the expired source.
+ *
+ * @author Nirandika Wanigasekara
+ */
+class SnapshotStreamer {
+    private static final String TAG = "SnapshotStreamer";
+
+    /**
+     * Delivers pushed snapshots.
+     */
+    interface Sink {
+        void sendSnapshot(String listenerId, MyContextSnapShot snapShot);
+    }
+
+    private final SnapshotStore store;
+    private final ScheduledExecutorService executor;
+    private final Sink sink;
+    private final ConcurrentHashMap<String, Subscription> subscriptions = new ConcurrentHashMap<String, Subscription>();
+
+    /**
+     * @param store    The store snapshots are built from
+     * @param executor Runs the pushes
+     * @param sink     Delivers the pushed snapshots
+     */
+    SnapshotStreamer(SnapshotStore store, ScheduledExecutorService executor, Sink sink) {
+        this.store = store;
+        this.executor = executor;
+        this.sink = sink;
+    }
+
+    /**
+     * Subscribes a listener, replacing an earlier subscription of the same id. The current store content is pushed
+     * right away.
+     *
+     * @param listenerId   The listener the snapshots are sent to
+     * @param projection   The sources and fields the listener asked for
+     * @param minInterval  The shortest time (ms) between two pushes
+     * @param debounce     The time (ms) without changes a push waits for
+     * @param maxStaleness The longest time (ms) a change may be held back by debouncing
+     */
+    void subscribe(String listenerId, SnapshotProjection projection, long minInterval, long debounce,
+                   long maxStaleness) {
+        Subscription subscription = new Subscription(listenerId, projection, minInterval, debounce, maxStaleness);
+        Subscription previous = subscriptions.put(listenerId, subscription);
+        if (previous != null)
+            previous.cancel();
+        OceanLog.d(TAG, "Subscribed {}", listenerId);
+        subscription.onChanged(System.currentTimeMillis());
+    }
+
+    /**
+     * Unsubscribes a listener. No snapshot is pushed to it once this returns.
+     *
+     * @return False if the listener was not subscribed
+     */
+    boolean unsubscribe(String listenerId) {
+        Subscription subscription = subscriptions.remove(listenerId);
+        if (subscription == null)
+            return false;
+        subscription.cancel();
+        OceanLog.d(TAG, "Unsubscribed {}", listenerId);
+        return true;
+    }
+
+    int getSubscriptionCount() {
+        return subscriptions.size();
+    }
+
+    /**
+     * Called after the store stamped a new version for the source.
+     */
+    void onChanged(SourceKey key) {
+        if (subscriptions.isEmpty())
+            return;
+        long now = System.currentTimeMillis();
+        for (Subscription subscription : subscriptions.values()) {
+            if (subscription.projection.includes(key.getContextType()))
+                subscription.onChanged(now);
+        }
+    }
+
+    /**
+     * Cancels every subscription.
+     */
+    void shutdown() {
+        for (Subscription subscription : subscriptions.values())
+            subscription.cancel();
+        subscriptions.clear();
+    }
+
+    /*
+     * One listener's settings and push state.
+     */
+    private class Subscription implements Runnable {
+        final String listenerId;
+        final SnapshotProjection projection;
+        final long minInterval;
+        final long debounce;
+        final long maxStaleness;
+        // Guarded by this
+        private long lastSent = Long.MIN_VALUE / 2;
+        // Null until the first push
+        private Long lastSentHash;
+        private long firstChange = -1;
+        private long lastChange;
+        private Future<?> task;
+        // Fires when the first result of the last push expires
+        private Future<?> expiry;
+        private boolean cancelled;
+
+        Subscription(String listenerId, SnapshotProjection projection, long minInterval, long debounce,
+                     long maxStaleness) {
+            this.listenerId = listenerId;
+            this.projection = projection;
+            this.minInterval = minInterval;
+            this.debounce = debounce;
+            this.maxStaleness = maxStaleness;
+        }
+
+        synchronized void onChanged(long now) {
+            if (cancelled)
+                return;
+            if (firstChange < 0)
+                firstChange = now;
+            lastChange = now;
+            if (task == null)
+                task = executor.schedule(this, Math.max(0, due() - now), TimeUnit.MILLISECONDS);
+        }
+
+        synchronized void cancel() {
+            cancelled = true;
+            if (task != null)
+                task.cancel(false);
+            if (expiry != null)
+                expiry.cancel(false);
+        }
+
+        // The earliest time the pending changes may be pushed
+        private long due() {
+            return Math.max(Math.min(lastChange + debounce, firstChange + maxStaleness), lastSent + minInterval);
+        }
+
+        // Guarded by this
+        private void expireAt(long time, long now) {
+            if (expiry != null)
+                expiry.cancel(false);
+            expiry = time == Long.MAX_VALUE ? null : executor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    onChanged(System.currentTimeMillis());
+                }
+            }, Math.max(0, time - now), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void run() {
+            Long previousHash;
+            long now = System.currentTimeMillis();
+            synchronized (this) {
+                if (cancelled)
+                    return;
+                long due = due();
+                if (due > now) {
+                    // Changes arrived during the debounce window
+                    task = executor.schedule(this, due - now, TimeUnit.MILLISECONDS);
+                    return;
+                }
+                task = null;
+                firstChange = -1;
+                lastSent = now;
+                previousHash = lastSentHash;
+            }
+            // Read the version first, so the snapshot never claims changes it does not contain
+            long version = store.getVersion();
+            List<SourceResult> results = projection.apply(store.values());
+            List<SnapShotEntry> entries = new ArrayList<SnapShotEntry>(results.size());
+            long contentHash = ContentHash.NONE;
+            long nextExpiry = Long.MAX_VALUE;
+            for (SourceResult result : results) {
+                if (!SnapshotStore.isValid(result, now))
+                    continue;
+                entries.add(result.toEntry());
+                contentHash = ContentHash.combine(contentHash, result.getContentHash());
+                if (result.getExpireTime() != 0)
+                    nextExpiry = Math.min(nextExpiry, result.getExpireTime());
+            }
+            // E.g. a source changed and changed back within the debounce window
+            boolean unchanged = previousHash != null && previousHash == contentHash;
+            MyContextSnapShot snapShot = unchanged ? null : new MyContextSnapShot(entries, version, false);
+            // Sent under the lock, so that a push cannot overtake cancel(): unsubscribed listeners get nothing more
+            synchronized (this) {
+                if (cancelled)
+                    return;
+                expireAt(nextExpiry, now);
+                if (unchanged)
+                    return;
+                lastSentHash = contentHash;
+                sink.sendSnapshot(listenerId, snapShot);
+            }
+        }
+    }
+}
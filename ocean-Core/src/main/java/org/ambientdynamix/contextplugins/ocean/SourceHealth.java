@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) The Ambient Dynamix Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.ocean;
+
+/**
+ * Health of one source: a circuit breaker over its context requests plus the timeout derived from its latency
+ * percentiles.
+ * <p/>
+ * The breaker opens after FAILURE_THRESHOLD consecutive failures (errors or timeouts) and then rejects requests for a
+ * backoff period. Once the period has passed, a single probe request is let through: if it succeeds the breaker
+ * closes, otherwise it opens again with twice the backoff, up to MAX_BACKOFF. Failures of requests sent before the
+ * breaker opened are ignored while it is open, so a burst of timeouts opens it by a single step. A probe whose
+ * response ocean itself dropped proves nothing either way: it is handed back and the next probe is let through after
+ * BASE_BACKOFF, without doubling the backoff.
+ *
+ * @author Nirandika Wanigasekara
+ */
+class SourceHealth {
+    static final int FAILURE_THRESHOLD = 5;
+    static final long BASE_BACKOFF = 5000;
+    static final long MAX_BACKOFF = 300000;
+    // Latency samples needed before the timeout is derived from them
+    static final int MIN_LATENCY_SAMPLES = 20;
+    // Samples recorded between two timeout computations
+    private static final int TIMEOUT_REFRESH_SAMPLES = 16;
+    // The timeout is this multiple of the p99 latency, but at least MIN_TIMEOUT
+    private static final int TIMEOUT_FACTOR = 2;
+    static final long MIN_TIMEOUT = 250;
+
+    private int consecutiveFailures;
+    // 0 while the breaker is closed
+    private long openUntil;
+    // The time the breaker last opened
+    private long openedAt;
+    private long backoff;
+    private boolean probing;
+    private long timeout = -1;
+    private long timeoutSamples;
+
+    /**
+     * Returns true if a request may be sent now. While the breaker is open this lets exactly one probe through per
+     * backoff period.
+     */
+    synchronized boolean allowRequest(long now) {
+        if (openUntil == 0)
+            return true;
+        if (probing || now < openUntil)
+            return false;
+        probing = true;
+        return true;
+    }
+
+    synchronized void onSuccess() {
+        consecutiveFailures = 0;
+        openUntil = 0;
+        backoff = 0;
+        probing = false;
+    }
+
+    /**
+     * @param now         The current time
+     * @param requestTime The time the failed request was sent
+     */
+    synchronized void onFailure(long now, long requestTime) {
+        // While open, only the probe is sent; anything else was in flight when the breaker opened
+        if (openUntil != 0 && (!probing || requestTime < openedAt))
+            return;
+        consecutiveFailures++;
+        if (probing || consecutiveFailures >= FAILURE_THRESHOLD) {
+            backoff = backoff == 0 ? BASE_BACKOFF : Math.min(MAX_BACKOFF, backoff * 2);
+            openUntil = now + backoff;
+            openedAt = now;
+            probing = false;
+        }
+    }
+
+    /**
+     * Hands back a request that was let through but abandoned by ocean without an outcome, e.g. because its response
+     * was dropped on overflow. If it was the probe, the breaker stays open and lets the next probe through after
+     * BASE_BACKOFF; otherwise nothing changes.
+     *
+     * @param now         The current time
+     * @param requestTime The time the abandoned request was sent
+     */
+    synchronized void onAbandoned(long now, long requestTime) {
+        if (openUntil == 0 || !probing || requestTime < openedAt)
+            return;
+        probing = false;
+        openUntil = now + BASE_BACKOFF;
+    }
+
+    synchronized boolean isOpen() {
+        return openUntil != 0;
+    }
+
+    /**
+     * Returns the time (ms) to wait for a response: TIMEOUT_FACTOR times the p99 latency of the source, bounded by
+     * MIN_TIMEOUT and maxTimeout, or maxTimeout until enough latencies are known. The percentile is only recomputed
+     * every few samples.
+     */
+    synchronized long getTimeout(LatencyHistogram latency, long maxTimeout) {
+        long samples = latency.getCount();
+        if (samples < MIN_LATENCY_SAMPLES)
+            return maxTimeout;
+        if (timeout < 0 || samples - timeoutSamples >= TIMEOUT_REFRESH_SAMPLES) {
+            timeout = Math.max(MIN_TIMEOUT, latency.getPercentile(99) * TIMEOUT_FACTOR);
+            timeoutSamples = samples;
+        }
+        return Math.min(timeout, maxTimeout);
+    }
+}
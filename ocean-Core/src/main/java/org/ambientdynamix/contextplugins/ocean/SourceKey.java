@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) The Ambient Dynamix Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.ocean;
+
+/**
+ * Identifies a context source, i.e. one context type offered by one plugin. Used as a map key, so the hash code is
+ * computed once.
+ *
+ * @author Nirandika Wanigasekara
+ */
+class SourceKey {
+    private final String pluginId;
+    private final String contextType;
+    private final int hash;
+
+    SourceKey(String pluginId, String contextType) {
+        this.pluginId = pluginId;
+        this.contextType = contextType;
+        this.hash = 31 * pluginId.hashCode() + contextType.hashCode();
+    }
+
+    String getPluginId() {
+        return pluginId;
+    }
+
+    String getContextType() {
+        return contextType;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof SourceKey))
+            return false;
+        SourceKey other = (SourceKey) o;
+        return hash == other.hash && pluginId.equals(other.pluginId) && contextType.equals(other.contextType);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return pluginId + " " + contextType;
+    }
+}
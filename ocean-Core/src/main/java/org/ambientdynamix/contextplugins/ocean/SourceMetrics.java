@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) The Ambient Dynamix Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.ocean;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and the request latency histogram of one context source.
+ *
+ * @author Nirandika Wanigasekara
+ */
+class SourceMetrics {
+    private final SourceKey key;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong successes = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong pushes = new AtomicLong();
+    private final AtomicLong firstPush = new AtomicLong();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    SourceMetrics(SourceKey key) {
+        this.key = key;
+    }
+
+    SourceKey getKey() {
+        return key;
+    }
+
+    void onRequest() {
+        requests.incrementAndGet();
+    }
+
+    /**
+     * @param latency The time (ms) from the request to its response
+     */
+    void onSuccess(long latency) {
+        successes.incrementAndGet();
+        this.latency.record(latency);
+    }
+
+    void onFailure() {
+        failures.incrementAndGet();
+    }
+
+    /**
+     * Records the latency of a response that arrived after its request had already been counted as failed.
+     */
+    void onLateResponse(long latency) {
+        this.latency.record(latency);
+    }
+
+    void onPush(long now) {
+        firstPush.compareAndSet(0, now);
+        pushes.incrementAndGet();
+    }
+
+    long getRequestCount() {
+        return requests.get();
+    }
+
+    long getSuccessCount() {
+        return successes.get();
+    }
+
+    long getFailureCount() {
+        return failures.get();
+    }
+
+    long getPushCount() {
+        return pushes.get();
+    }
+
+    /**
+     * Returns the pushes per minute since the first push, or 0 if there was none.
+     */
+    double getPushRate(long now) {
+        long first = firstPush.get();
+        long count = pushes.get();
+        if (first == 0 || count == 0)
+            return 0;
+        return count * 60000.0 / Math.max(1000, now - first);
+    }
+
+    LatencyHistogram getLatency() {
+        return latency;
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) The Ambient Dynamix Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.ocean;
+
+/**
+ * Immutable copy of a single context result received from another plugin. Only plain values are kept so that the
+ * result can outlive the ContextResult it was taken from. Numeric fields extracted by a ResultDecoder are kept as a
+ * pair of arrays; the arrays are shared and must not be modified. The content hash is computed on first use.
+ *
+ * @author Nirandika Wanigasekara
+ */
+class SourceResult {
+    private final String pluginId;
+    private final String contextType;
+    private final long timeStamp;
+    private final long expireTime;
+    private final String payload;
+    private final String[] fieldNames;
+    private final double[] fieldValues;
+    // Volatile: a plain long may be written in two halves on 32-bit VMs
+    private volatile long contentHash;
+
+    /**
+     * Create a SourceResult
+     *
+     * @param pluginId    The plugin that produced the result
+     * @param contextType The context type of the result
+     * @param timeStamp   The time the result was produced (ms since epoch)
+     * @param expireTime  The time the result expires (ms since epoch) or 0 if it does not expire
+     * @param payload     The text/plain representation of the result
+     */
+    SourceResult(String pluginId, String contextType, long timeStamp, long expireTime, String payload) {
+        this(pluginId, contextType, timeStamp, expireTime, payload, ResultDecoder.NO_FIELDS, ResultDecoder.NO_VALUES);
+    }
+
+    /**
+     * Create a SourceResult with decoded fields
+     *
+     * @param fieldNames  The names of the decoded fields
+     * @param fieldValues The values of the decoded fields, in the order of fieldNames
+     */
+    SourceResult(String pluginId, String contextType, long timeStamp, long expireTime, String payload,
+                 String[] fieldNames, double[] fieldValues) {
+        this.pluginId = pluginId;
+        this.contextType = contextType;
+        this.timeStamp = timeStamp;
+        this.expireTime = expireTime;
+        this.payload = payload;
+        this.fieldNames = fieldNames;
+        this.fieldValues = fieldValues;
+    }
+
+    String getPluginId() {
+        return pluginId;
+    }
+
+    String getContextType() {
+        return contextType;
+    }
+
+    long getTimeStamp() {
+        return timeStamp;
+    }
+
+    long getExpireTime() {
+        return expireTime;
+    }
+
+    String getPayload() {
+        return payload;
+    }
+
+    String[] getFieldNames() {
+        return fieldNames;
+    }
+
+    double[] getFieldValues() {
+        return fieldValues;
+    }
+
+    /**
+     * Returns the fingerprint of what the result reports, which is equal for results that differ only in time.
+     */
+    long getContentHash() {
+        // Racy but idempotent: concurrent callers compute the same value
+        long hash = contentHash;
+        if (hash == ContentHash.NONE) {
+            hash = ContentHash.of(pluginId, contextType, payload, fieldNames, fieldValues);
+            contentHash = hash;
+        }
+        return hash;
+    }
+
+    /**
+     * Returns this result as a snapshot entry.
+     */
+    SnapShotEntry toEntry() {
+        return new SnapShotEntry(pluginId, contextType, timeStamp, expireTime, payload, fieldNames, fieldValues,
+                getContentHash());
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) The Ambient Dynamix Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.ocean;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Streaming aggregation stage fed with every received and pushed result. The decoded numeric fields of each context
+ * type are kept in one SampleRing per field; windows are evaluated over the rings when a client asks for them. The
+ * rings of a context type are found by its context type and the field's position among the decoder's field names, so
+ * recording a sample neither allocates nor builds keys.
+ *
+ * @author Nirandika Wanigasekara
+ */
+class WindowAggregator {
+    // Field names of the entries answered by evaluate
+    private static final String[] RESULT_FIELDS = {"value", "count", "start", "end"};
+
+    private final int capacity;
+    private final ConcurrentHashMap<String, Series> series = new ConcurrentHashMap<String, Series>();
+
+    /**
+     * @param capacity The number of samples kept per field
+     */
+    WindowAggregator(int capacity) {
+        this.capacity = Math.max(1, capacity);
+    }
+
+    /**
+     * Records the decoded fields of a result.
+     */
+    void onResult(SourceResult result) {
+        String[] names = result.getFieldNames();
+        if (names.length == 0)
+            return;
+        Series current = series.get(result.getContextType());
+        if (current == null) {
+            Series created = new Series(names, capacity);
+            current = series.putIfAbsent(result.getContextType(), created);
+            if (current == null)
+                current = created;
+        }
+        if (current.names != names) {
+            // The decoder of the context type was replaced; start over with its fields
+            current = new Series(names, capacity);
+            series.put(result.getContextType(), current);
+        }
+        double[] values = result.getFieldValues();
+        for (int i = 0; i < values.length; i++)
+            current.rings[i].add(result.getTimeStamp(), values[i]);
+    }
+
+    /**
+     * Evaluates the windows at the given time. Each window is answered with one entry whose payload is the window
+     * spec and whose fields are the value, the number of samples and the start and end of the window; the value is
+     * NaN if the window holds no samples (0 for count).
+     */
+    List<SnapShotEntry> evaluate(List<WindowSpec> windows, long now) {
+        List<SnapShotEntry> entries = new ArrayList<SnapShotEntry>(windows.size());
+        double[] result = new double[2];
+        for (WindowSpec window : windows) {
+            long start = window.getStart(now);
+            long end = window.getEnd(now);
+            SampleRing ring = find(window.getContextType(), window.getField());
+            if (ring != null) {
+                ring.aggregate(start, end, window.getFunction(), result);
+            } else {
+                result[0] = window.getFunction() == WindowSpec.COUNT ? 0 : Double.NaN;
+                result[1] = 0;
+            }
+            entries.add(new SnapShotEntry(oceanRuntime.OCEAN_PLUGIN_ID, window.getContextType(), end, 0,
+                    window.toString(), RESULT_FIELDS, new double[]{result[0], result[1], start, end}));
+        }
+        return entries;
+    }
+
+    void clear() {
+        series.clear();
+    }
+
+    private SampleRing find(String contextType, String field) {
+        Series current = series.get(contextType);
+        if (current == null)
+            return null;
+        for (int i = 0; i < current.names.length; i++) {
+            if (current.names[i].equals(field))
+                return current.rings[i];
+        }
+        return null;
+    }
+
+    /*
+     * The rings of one context type, one per decoded field.
+     */
+    private static final class Series {
+        final String[] names;
+        final SampleRing[] rings;
+
+        Series(String[] names, int capacity) {
+            this.names = names;
+            this.rings = new SampleRing[names.length];
+            for (int i = 0; i < names.length; i++)
+                rings[i] = new SampleRing(capacity);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) The Ambient Dynamix Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.ocean;
+
+/**
+ * One window requested by a client, parsed from a string of the form
+ *
+ * <pre>
+ * contextType:field:window:length:function
+ * </pre>
+ *
+ * where window is "sliding" (the last length ms) or "tumbling" (the last complete period of length ms, aligned to
+ * the epoch), and function is "count", "min", "max", "mean" or "rate". The rate is the change of the field per minute
+ * between the first and the last sample of the window, e.g. the battery drain rate.
+ *
+ * @author Nirandika Wanigasekara
+ */
+class WindowSpec {
+    static final int COUNT = 0;
+    static final int MIN = 1;
+    static final int MAX = 2;
+    static final int MEAN = 3;
+    static final int RATE = 4;
+    private static final String[] FUNCTIONS = {"count", "min", "max", "mean", "rate"};
+
+    private final String contextType;
+    private final String field;
+    private final boolean tumbling;
+    private final long length;
+    private final int function;
+
+    WindowSpec(String contextType, String field, boolean tumbling, long length, int function) {
+        if (length <= 0)
+            throw new IllegalArgumentException("Window length must be positive: " + length);
+        this.contextType = contextType;
+        this.field = field;
+        this.tumbling = tumbling;
+        this.length = length;
+        this.function = function;
+    }
+
+    /**
+     * Parses a window spec.
+     *
+     * @throws IllegalArgumentException If the spec is malformed
+     */
+    static WindowSpec parse(String spec) {
+        String[] parts = spec.trim().split(":");
+        if (parts.length != 5)
+            throw new IllegalArgumentException("Malformed window spec: " + spec);
+        boolean tumbling;
+        if (parts[2].equalsIgnoreCase("tumbling"))
+            tumbling = true;
+        else if (parts[2].equalsIgnoreCase("sliding"))
+            tumbling = false;
+        else
+            throw new IllegalArgumentException("Unknown window " + parts[2] + " in " + spec);
+        long length;
+        try {
+            length = Long.parseLong(parts[3]);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed window length in " + spec);
+        }
+        for (int function = 0; function < FUNCTIONS.length; function++) {
+            if (FUNCTIONS[function].equalsIgnoreCase(parts[4]))
+                return new WindowSpec(parts[0], parts[1], tumbling, length, function);
+        }
+        throw new IllegalArgumentException("Unknown function " + parts[4] + " in " + spec);
+    }
+
+    String getContextType() {
+        return contextType;
+    }
+
+    String getField() {
+        return field;
+    }
+
+    /**
+     * Returns the start of the window ending at getEnd(now).
+     */
+    long getStart(long now) {
+        return getEnd(now) - length;
+    }
+
+    /**
+     * Returns the (exclusive) end of the window evaluated at the given time.
+     */
+    long getEnd(long now) {
+        return tumbling ? now - now % length : now + 1;
+    }
+
+    int getFunction() {
+        return function;
+    }
+
+    @Override
+    public String toString() {
+        return contextType + ':' + field + ':' + (tumbling ? "tumbling" : "sliding") + ':' + length + ':'
+                + FUNCTIONS[function];
+    }
+}
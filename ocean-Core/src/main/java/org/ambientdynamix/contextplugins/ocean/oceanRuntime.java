@@ -15,8 +15,19 @@
  */
 package org.ambientdynamix.contextplugins.ocean;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import android.os.Parcel;
 import android.os.RemoteException;
@@ -31,8 +42,6 @@ import org.ambientdynamix.api.contextplugin.security.SecuredContextInfo;
 
 import android.content.Context;
 import android.os.Bundle;
-import android.util.Log;
-import org.ambientdynamix.contextplugins.logger.IMyPhoneCallsInfo;
 
 
 /**
@@ -42,16 +51,134 @@ import org.ambientdynamix.contextplugins.logger.IMyPhoneCallsInfo;
  */
 public class oceanRuntime extends ContextPluginRuntime {
     private static final int VALID_CONTEXT_DURATION = 60000;
+    // Our own plugin id, never routed to
+    static final String OCEAN_PLUGIN_ID = "org.ambientdynamix.contextplugins.ocean";
+    // Default time to wait for plugin responses before a snapshot is sent with the results collected so far
+    private static final long DEFAULT_SNAPSHOT_DEADLINE = 5000;
+    // ContextPluginSettings key overriding DEFAULT_SNAPSHOT_DEADLINE (ms)
+    static final String SNAPSHOT_DEADLINE_SETTING = "snapshotDeadlineMs";
+    // Default number of (plugin, context type) results kept in the result cache
+    private static final int DEFAULT_RESULT_CACHE_SIZE = 64;
+    // ContextPluginSettings key overriding DEFAULT_RESULT_CACHE_SIZE, read once during init
+    static final String RESULT_CACHE_SIZE_SETTING = "resultCacheSize";
+    // Default longest time a pull-only source may go without a background refresh
+    private static final long DEFAULT_MAX_STALENESS = 300000;
+    // ContextPluginSettings key overriding DEFAULT_MAX_STALENESS (ms)
+    static final String MAX_STALENESS_SETTING = "maxStalenessMs";
+    // Default size of one history segment file
+    private static final int DEFAULT_HISTORY_SEGMENT_SIZE = 1024 * 1024;
+    // ContextPluginSettings key overriding DEFAULT_HISTORY_SEGMENT_SIZE (bytes), read once during init
+    static final String HISTORY_SEGMENT_SIZE_SETTING = "historySegmentBytes";
+    // Default number of history segments kept
+    private static final int DEFAULT_HISTORY_SEGMENTS = 8;
+    // ContextPluginSettings key overriding DEFAULT_HISTORY_SEGMENTS, read once during init; 0 keeps no history
+    static final String HISTORY_SEGMENTS_SETTING = "historySegments";
+    // Default longest time history is kept
+    private static final long DEFAULT_HISTORY_RETENTION = 7L * 24 * 60 * 60 * 1000;
+    // ContextPluginSettings key overriding DEFAULT_HISTORY_RETENTION (ms), read once during init
+    static final String HISTORY_RETENTION_SETTING = "historyRetentionMs";
+    // Range returned for history requests without a configuration
+    private static final long DEFAULT_HISTORY_RANGE = 60 * 60 * 1000;
+    // Default number of worker threads processing context results and pushes
+    private static final int DEFAULT_CALLBACK_WORKERS = 2;
+    // ContextPluginSettings key overriding DEFAULT_CALLBACK_WORKERS, read once during init
+    static final String CALLBACK_WORKERS_SETTING = "callbackWorkers";
+    // Default number of context results and pushes that may wait for a worker
+    private static final int DEFAULT_CALLBACK_QUEUE_SIZE = 256;
+    // ContextPluginSettings key overriding DEFAULT_CALLBACK_QUEUE_SIZE, read once during init
+    static final String CALLBACK_QUEUE_SIZE_SETTING = "callbackQueueSize";
+    // ContextPluginSettings key selecting the CallbackExecutor overflow policy, read once during init
+    static final String CALLBACK_OVERFLOW_SETTING = "callbackOverflow";
+    // Largest number of history entries returned unless the request sets ContextHistory.LIMIT
+    private static final int DEFAULT_HISTORY_LIMIT = 1000;
+    // Default number of samples kept per decoded field for windowed aggregates
+    private static final int DEFAULT_AGGREGATION_SAMPLES = 1024;
+    // ContextPluginSettings key overriding DEFAULT_AGGREGATION_SAMPLES, read once during init
+    static final String AGGREGATION_SAMPLES_SETTING = "aggregationSamples";
+    // Default number of context support registrations outstanding at a time during startup
+    private static final int DEFAULT_REGISTRATION_PARALLELISM = 4;
+    // ContextPluginSettings key overriding DEFAULT_REGISTRATION_PARALLELISM
+    static final String REGISTRATION_PARALLELISM_SETTING = "registrationParallelism";
+    // Default longest time one context support registration may take before the next one is issued
+    private static final long DEFAULT_REGISTRATION_TIMEOUT = 10000;
+    // ContextPluginSettings key overriding DEFAULT_REGISTRATION_TIMEOUT (ms)
+    static final String REGISTRATION_TIMEOUT_SETTING = "registrationTimeoutMs";
+    // Support modes: add context support for every available plugin at startup, or only for requested context types
+    static final String SUPPORT_ALL = "all";
+    static final String SUPPORT_ON_DEMAND = "onDemand";
+    // ContextPluginSettings key selecting the support mode, read once during init
+    static final String SUPPORT_MODE_SETTING = "supportMode";
+    // Default time after which on-demand support for a context type nobody requested is released
+    private static final long DEFAULT_SUPPORT_IDLE = 10 * 60 * 1000;
+    // Defaults of the listener configuration (see MyContextSnapShot.MIN_INTERVAL, DEBOUNCE and MAX_STALENESS)
+    private static final long DEFAULT_LISTENER_MIN_INTERVAL = 1000;
+    private static final long DEFAULT_LISTENER_DEBOUNCE = 200;
+    private static final long DEFAULT_LISTENER_MAX_STALENESS = 5000;
+    // ContextPluginSettings key overriding DEFAULT_SUPPORT_IDLE (ms)
+    static final String SUPPORT_IDLE_SETTING = "supportIdleMs";
     // Static logging TAG
     private final String TAG = this.getClass().getSimpleName();
     // Our secure context
     private Context context;
-    private StringBuffer contextSnapShot = new StringBuffer("Ocean Testing with invoke plugin v3.42");
+    private long snapshotDeadline = DEFAULT_SNAPSHOT_DEADLINE;
+    private int resultCacheSize = DEFAULT_RESULT_CACHE_SIZE;
+    private long maxStaleness = DEFAULT_MAX_STALENESS;
+    private int historySegmentSize = DEFAULT_HISTORY_SEGMENT_SIZE;
+    private int historySegments = DEFAULT_HISTORY_SEGMENTS;
+    private long historyRetention = DEFAULT_HISTORY_RETENTION;
+    private HistoryLog historyLog;
+    private int aggregationSamples = DEFAULT_AGGREGATION_SAMPLES;
+    private int callbackWorkers = DEFAULT_CALLBACK_WORKERS;
+    private int callbackQueueSize = DEFAULT_CALLBACK_QUEUE_SIZE;
+    private String callbackOverflow = CallbackExecutor.DROP_OLDEST;
+    private int registrationParallelism = DEFAULT_REGISTRATION_PARALLELISM;
+    private long registrationTimeout = DEFAULT_REGISTRATION_TIMEOUT;
+    private String supportMode = SUPPORT_ALL;
+    private long supportIdle = DEFAULT_SUPPORT_IDLE;
+    private final ContextDemand demand = new ContextDemand();
+    // The context support added by ocean, kept so that on-demand support can be released
+    private final ConcurrentHashMap<SourceKey, ContextSupportInfo> supportInfos =
+            new ConcurrentHashMap<SourceKey, ContextSupportInfo>();
+    // The periodic release of idle on-demand support, null while not scheduled; guarded by this
+    private ScheduledFuture<?> idleRelease;
+    private volatile CallbackExecutor callbacks;
+    private PowerScheme powerScheme;
+    private ScheduledExecutorService scheduler;
+    private volatile SnapshotEngine engine;
+    private final ResultDecoderRegistry decoders = ResultDecoderRegistry.withBundledDecoders();
 
-    private DynamixFacade dynamix;
-    private ContextHandler handler;
+    private volatile DynamixFacade dynamix;
+    private volatile ContextHandler handler;
     private ContextPluginInformationResult pluginInfoResult;
     private IDynamixFacade iDynamix;
+    // True once start() has been called, so later calls are restarts
+    private boolean started;
+    // True once destroy() has been called; requests arriving afterwards are answered with an error
+    private volatile boolean destroyed;
+    // The stand-in for Dynamix and the receiver of its snapshots, set by useLocalDynamix; null on a device
+    private volatile LocalDynamix localDynamix;
+    private SnapshotEngine.SnapshotSink localSink;
+
+    /**
+     * Stand-in for the Dynamix session, used to run ocean on a plain JVM (see useLocalDynamix). Answers context
+     * requests in place of the context handler through the given response, from any thread.
+     */
+    interface LocalDynamix {
+        PluginRoutingTable getRoutingTable();
+
+        void contextRequest(String pluginId, String contextType, ContextResponse response) throws Exception;
+    }
+
+    /**
+     * Runs ocean against a local stand-in for Dynamix instead of a Dynamix session: start() routes the plugins of the
+     * stand-in instead of opening a session, context requests are sent to the stand-in, whose answers go through the
+     * same callback workers and decoding as those of the context handler, and snapshots are delivered to the sink
+     * instead of being sent as context events. Must be called before init.
+     */
+    void useLocalDynamix(LocalDynamix dynamix, SnapshotEngine.SnapshotSink sink) {
+        localDynamix = dynamix;
+        localSink = sink;
+    }
 
     /**
      * Called once when the ContextPluginRuntime is first initialized. The implementing subclass should acquire the
@@ -64,68 +191,228 @@ public class oceanRuntime extends ContextPluginRuntime {
         this.setPowerScheme(powerScheme);
         // Store our secure context
         this.context = this.getSecuredContext();
-        Log.i(TAG, "Init v3.42.git1");
+        applySettings(settings);
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        callbacks = new CallbackExecutor(callbackWorkers, callbackQueueSize, callbackOverflow);
+        engine = new SnapshotEngine(contextDispatcher, localSink != null ? localSink : snapshotSink, scheduler, resultCacheSize, snapshotDeadline,
+                maxStaleness);
+        engine.setPowerScheme(powerScheme);
+        // Off the scheduler thread, which also runs snapshot deadlines, source timeouts and pushes
+        engine.setRefreshExecutor(new Executor() {
+            @Override
+            public void execute(Runnable refresh) {
+                callbacks.executeControl(refresh);
+            }
+        });
+        engine.setWindowAggregator(new WindowAggregator(aggregationSamples));
+        engine.setSnapshotStreamer(new SnapshotStreamer(engine.getSnapshotStore(), scheduler, listenerSink));
+        if (historySegments > 0) {
+            historyLog = new HistoryLog(new File(context.getFilesDir(), "ocean-history"), historySegmentSize,
+                    historySegments, historyRetention);
+            engine.setHistoryLog(historyLog);
+        }
+        OceanLog.i(TAG, "Init v3.42.git1");
     }
 
     /**
-     * Called by the Dynamix Context Manager to start (or prepare to start) context sensing or acting operations.
+     * Called by the Dynamix Context Manager to start (or prepare to start) context sensing or acting operations. The
+     * first start opens the Dynamix session; later starts reuse the session, context handler and routes kept by stop()
+     * if the session is still open (a warm restart), and only go through the full startup again if it is not.
      */
     @Override
     public void start() throws RemoteException {
-        Log.d(TAG, "Started!");
+        OceanLog.d(TAG, "Started!");
+        final boolean warm = dynamix != null && handler != null;
+        if (engine != null) {
+            if (started)
+                engine.getMetrics().onRestart(System.currentTimeMillis(), warm);
+            else
+                engine.getMetrics().onStart(System.currentTimeMillis());
+        }
+        started = true;
+        if (localDynamix != null) {
+            startLocal();
+        } else if (warm) {
+            callbacks.executeControl(new Runnable() {
+                @Override
+                public void run() {
+                    resume();
+                }
+            });
+        } else {
+            openSession();
+        }
+    }
+
+    /*
+     * Routes the plugins of the local stand-in for Dynamix and starts the background refreshes, as a full startup does
+     * once context support has been added.
+     */
+    private void startLocal() {
+        SnapshotEngine engine = this.engine;
+        if (engine == null)
+            return;
+        engine.setRoutingTable(localDynamix.getRoutingTable());
+        engine.startScheduling();
+    }
+
+    /*
+     * Opens a new Dynamix session; the context handler and routes are set up once it is open.
+     */
+    private void openSession() throws RemoteException {
         iDynamix = getPluginFacade().getDynamixFacade(getSessionId());
         iDynamix.openSessionWithCallback(new ISessionCallback.Stub() {
             @Override
-            public void onSuccess(DynamixFacade dynamixFacade) throws RemoteException {
-                //Obtain all the available plugins in the phone
-                dynamix = dynamixFacade;
-                Log.i(TAG, "Ocean: openSession.onSuccess");
-                if (dynamixFacade != null) {
-                    Log.i(TAG, "Ocean: dynamixFacade is not null");
-                    //create the context handler
-                    dynamixFacade.createContextHandler(new ContextHandlerCallback() {
-                        @Override
-                        public void onSuccess(ContextHandler contextHandler) throws RemoteException {
-                            handler = contextHandler;
-                            Log.i(TAG, "Ocean: createContextHandler.onSuccess");
-
-                            //get all installed context plugin information
-                            pluginInfoResult = dynamix.getInstalledContextPluginInformation();
-                            if (pluginInfoResult.wasSuccessful() && pluginInfoResult != null) {
-                                Log.i(TAG, "Ocean: Reached pluginInfoResult");
-                                Log.i(TAG, "pluginInfoResult.getContextPluginInformation().size() " + pluginInfoResult.getContextPluginInformation().size());
-                                addContextSupportForAllPlugins();
-                            } else {
-                                Log.w(TAG, "No plugings installed");
-                            }
-                        }
+            public void onSuccess(final DynamixFacade dynamixFacade) throws RemoteException {
+                callbacks.executeControl(new Runnable() {
+                    @Override
+                    public void run() {
+                        onSessionOpened(dynamixFacade);
+                    }
+                });
+            }
+
+            @Override
+            public void onFailure(String s, int i) throws RemoteException {
+                OceanLog.i(TAG, "openSession.onFailure {}", s);
+            }
+        });
+    }
 
+    /*
+     * Revalidates the session, context handler and routes kept through stop() and resumes the background refreshes.
+     * Only the installed plugins are queried again, to route plugins installed or uninstalled while ocean was stopped;
+     * context support is not added again. Falls back to a full startup if the session was closed. Runs on the control
+     * thread.
+     */
+    private void resume() {
+        SnapshotEngine engine = this.engine;
+        if (engine == null)
+            return;
+        try {
+            if (dynamix.isSessionOpen()) {
+                ContextPluginInformationResult installed = dynamix.getInstalledContextPluginInformation();
+                if (installed != null && installed.wasSuccessful()) {
+                    reconcileRoutes(engine, installed.getContextPluginInformation());
+                    engine.startScheduling();
+                    startIdleRelease();
+                    if (OceanLog.isLoggable(OceanLog.INFO))
+                        OceanLog.i(TAG, "Ocean: warm restart with {} routes", engine.getRoutingTable().size());
+                    return;
+                }
+            }
+        } catch (RemoteException e) {
+            OceanLog.w(TAG, "Revalidating the session failed: {}", e);
+        }
+        OceanLog.i(TAG, "Ocean: session lost, starting cold");
+        // Everything registered through the lost session is gone with it
+        stopIdleRelease();
+        handler = null;
+        dynamix = null;
+        resetSessionState();
+        try {
+            openSession();
+        } catch (RemoteException e) {
+            OceanLog.w(TAG, "Opening the session failed: {}", e);
+        }
+    }
+
+    /*
+     * Adds the routes of newly installed plugins and removes those of uninstalled ones. In the SUPPORT_ON_DEMAND mode
+     * nothing is added: sources are only routed once a request has added their context support.
+     */
+    private void reconcileRoutes(SnapshotEngine engine, List<ContextPluginInformation> plugins) {
+        boolean onDemand = SUPPORT_ON_DEMAND.equals(supportMode);
+        Set<String> installed = new HashSet<String>();
+        for (ContextPluginInformation plugin : plugins) {
+            if (plugin.getPluginId().equals(OCEAN_PLUGIN_ID))
+                continue;
+            installed.add(plugin.getPluginId());
+            if (!onDemand)
+                engine.onPluginInstalled(plugin.getPluginId(), plugin.getSupportedContextTypes());
+        }
+        Set<String> routed = new HashSet<String>();
+        for (PluginRoute route : engine.getRoutingTable().getRoutes())
+            routed.add(route.getPluginId());
+        for (String pluginId : routed) {
+            if (!installed.contains(pluginId)) {
+                OceanLog.d(TAG, "Ocean: {} was uninstalled", pluginId);
+                engine.onPluginUninstalled(pluginId);
+            }
+        }
+    }
+
+    /*
+     * Creates the context handler once the Dynamix session is open. Runs on the control thread.
+     */
+    private void onSessionOpened(DynamixFacade dynamixFacade) {
+        //Obtain all the available plugins in the phone
+        dynamix = dynamixFacade;
+        OceanLog.i(TAG, "Ocean: openSession.onSuccess");
+        if (dynamixFacade == null) {
+            OceanLog.w(TAG, "dynamixFacade is null");
+            return;
+        }
+        try {
+            //create the context handler
+            dynamixFacade.createContextHandler(new ContextHandlerCallback() {
+                @Override
+                public void onSuccess(final ContextHandler contextHandler) throws RemoteException {
+                    callbacks.executeControl(new Runnable() {
                         @Override
-                        public void onFailure(String s, int i) throws RemoteException {
-                            Log.i(TAG, "createContextHandler.onFailure " + s);
+                        public void run() {
+                            onContextHandlerCreated(contextHandler);
                         }
                     });
+                }
 
-                } else {
-                    Log.w(TAG, "dynamixFacade is null");
+                @Override
+                public void onFailure(String s, int i) throws RemoteException {
+                    OceanLog.i(TAG, "createContextHandler.onFailure {}", s);
                 }
-            }
+            });
+        } catch (RemoteException e) {
+            OceanLog.w(TAG, "createContextHandler failed: {}", e);
+        }
+    }
 
-            @Override
-            public void onFailure(String s, int i) throws RemoteException {
-                Log.i(TAG, "openSession.onFailure");
+    /*
+     * Builds the routing table and adds context support once the context handler exists. Runs on the control thread.
+     */
+    private void onContextHandlerCreated(ContextHandler contextHandler) {
+        // Support and demand registered with an earlier session are gone with it
+        resetSessionState();
+        handler = contextHandler;
+        OceanLog.i(TAG, "Ocean: createContextHandler.onSuccess");
+        try {
+            //get all installed context plugin information
+            pluginInfoResult = dynamix.getInstalledContextPluginInformation();
+            if (pluginInfoResult.wasSuccessful() && pluginInfoResult != null) {
+                if (OceanLog.isLoggable(OceanLog.INFO))
+                    OceanLog.i(TAG, "Ocean: Reached pluginInfoResult, {} plugins",
+                            pluginInfoResult.getContextPluginInformation().size());
+                buildRoutingTable(pluginInfoResult.getContextPluginInformation());
+                addContextSupportForAllPlugins();
+            } else {
+                OceanLog.w(TAG, "No plugings installed");
             }
-        });
+        } catch (RemoteException e) {
+            OceanLog.w(TAG, "Reading the installed plugins failed: {}", e);
+        }
     }
 
     /**
      * Called by the Dynamix Context Manager to stop context sensing or acting operations; however, any acquired
-     * resources should be maintained, since start may be called again.
+     * resources should be maintained, since start may be called again. Only the background refreshes stop; the
+     * session, context handler, context support, routes and cached results are kept for a warm restart.
      */
     @Override
     public void stop() {
-
-        Log.d(TAG, "Stopped!");
+        if (engine != null)
+            engine.stopScheduling();
+        stopIdleRelease();
+        OceanLog.d(TAG, "Stopped!");
+        OceanLog.dumpTrace();
     }
 
     /**
@@ -135,9 +422,64 @@ public class oceanRuntime extends ContextPluginRuntime {
      */
     @Override
     public void destroy() {
+        destroyed = true;
         this.stop();
+        releaseSession();
+        if (engine != null) {
+            engine.shutdown();
+            engine = null;
+        }
+        if (historyLog != null) {
+            historyLog.close();
+            historyLog = null;
+        }
+        // Kept after shutdown, so that late binder callbacks are dropped instead of failing
+        if (callbacks != null)
+            callbacks.shutdown();
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
         context = null;
-        Log.d(TAG, "Destroyed!");
+        OceanLog.d(TAG, "Destroyed!");
+        OceanLog.dumpTrace();
+    }
+
+    /*
+     * Removes the context support ocean added and closes the Dynamix session kept for warm restarts.
+     */
+    private void releaseSession() {
+        ContextHandler handler = this.handler;
+        if (handler != null) {
+            for (ContextSupportInfo info : supportInfos.values()) {
+                try {
+                    handler.removeContextSupport(info);
+                } catch (RemoteException e) {
+                    OceanLog.w(TAG, "Removing context support failed: {}", e);
+                }
+            }
+        }
+        supportInfos.clear();
+        this.handler = null;
+        DynamixFacade dynamix = this.dynamix;
+        this.dynamix = null;
+        if (dynamix == null)
+            return;
+        try {
+            dynamix.closeSession(new Callback() {
+                @Override
+                public void onSuccess() throws RemoteException {
+                    OceanLog.d(TAG, "Session closed");
+                }
+
+                @Override
+                public void onFailure(String s, int i) throws RemoteException {
+                    OceanLog.w(TAG, "Closing the session failed: {}", s);
+                }
+            });
+        } catch (RemoteException e) {
+            OceanLog.w(TAG, "Closing the session failed: {}", e);
+        }
     }
 
     @Override
@@ -145,49 +487,307 @@ public class oceanRuntime extends ContextPluginRuntime {
 
         // Check for proper context type
         if (contextType.equalsIgnoreCase(MyContextSnapShot.CONTEXT_TYPE)) {
-            Log.i(TAG, "Reached the handle context request" + contextType);
+            OceanLog.d(TAG, "Reached the handle context request {}", contextType);
+            requestSnapshot(new SnapshotRequest(requestId, SnapshotRequest.FULL));
+        } else if (contextType.equalsIgnoreCase(OceanMetricsInfo.CONTEXT_TYPE)) {
+            sendMetrics(requestId);
+        } else if (contextType.equalsIgnoreCase(ContextHistory.CONTEXT_TYPE)) {
+            queryHistory(requestId, null);
+        } else if (contextType.equalsIgnoreCase(ContextAggregates.CONTEXT_TYPE)) {
+            sendContextRequestError(requestId, "No windows requested", ErrorCodes.CONTEXT_SUPPORT_NOT_FOUND);
+        } else {
+            sendContextRequestError(requestId, "NO_CONTEXT_SUPPORT for " + contextType, ErrorCodes.CONTEXT_SUPPORT_NOT_FOUND);
+        }
+    }
 
-            /*Invoke plugins which are not auto_reactive and receive the latest information.*/
+    /**
+     * Snapshot requests may carry MyContextSnapShot.SINCE_VERSION, the version of the last snapshot the client
+     * received, in which case only the sources that changed since that version are sent. Without it (or with
+     * MyContextSnapShot.FULL_SNAPSHOT set) the full snapshot is sent. MyContextSnapShot.CONTEXT_TYPES and
+     * MyContextSnapShot.FIELDS restrict the snapshot to the named context types and fields; only the plugins of those
+     * context types are requested. A full snapshot request may carry MyContextSnapShot.CONTENT_HASH, the content hash of
+     * the last snapshot the client received, in which case a snapshot marked as not modified is sent if the content is
+     * unchanged.
+     */
+    @Override
+    public void handleConfiguredContextRequest(UUID requestId, String contextType, Bundle config) {
+        if (contextType.equalsIgnoreCase(MyContextSnapShot.CONTEXT_TYPE) && config != null) {
+            SnapshotProjection projection;
             try {
-                invokePlugins();
-            } catch (RemoteException e) {
-                e.printStackTrace();
+                projection = SnapshotProjection.of(config.getStringArray(MyContextSnapShot.CONTEXT_TYPES),
+                        config.getStringArray(MyContextSnapShot.FIELDS));
+            } catch (IllegalArgumentException e) {
+                sendContextRequestError(requestId, e.getMessage(), ErrorCodes.CONTEXT_SUPPORT_NOT_FOUND);
+                return;
+            }
+            long sinceVersion = SnapshotRequest.FULL;
+            if (config.containsKey(MyContextSnapShot.SINCE_VERSION)
+                    && !config.getBoolean(MyContextSnapShot.FULL_SNAPSHOT, false))
+                sinceVersion = Math.max(0, config.getLong(MyContextSnapShot.SINCE_VERSION, 0));
+            requestSnapshot(new SnapshotRequest(requestId, sinceVersion, projection,
+                    config.getLong(MyContextSnapShot.CONTENT_HASH, ContentHash.NONE)));
+        } else if (contextType.equalsIgnoreCase(ContextHistory.CONTEXT_TYPE)) {
+            queryHistory(requestId, config);
+        } else if (contextType.equalsIgnoreCase(ContextAggregates.CONTEXT_TYPE) && config != null) {
+            sendAggregates(requestId, config.getStringArray(ContextAggregates.WINDOWS));
+        } else {
+            handleContextRequest(requestId, contextType);
+        }
+    }
+
+    /*
+     * Hands the request to the snapshot engine, or reports an error if the runtime has not been initialized or has been
+     * destroyed.
+     */
+    private void requestSnapshot(final SnapshotRequest request) {
+        final SnapshotEngine engine = this.engine;
+        if (destroyed) {
+            sendContextRequestError(request.getRequestId(), "ocean has been destroyed", ErrorCodes.CONTEXT_SUPPORT_NOT_FOUND);
+            return;
+        }
+        if (engine == null) {
+            sendContextRequestError(request.getRequestId(), "ocean is not initialized", ErrorCodes.CONTEXT_SUPPORT_NOT_FOUND);
+            return;
+        }
+        if (!SUPPORT_ON_DEMAND.equals(supportMode) || handler == null) {
+            submitSnapshot(engine, request);
+            return;
+        }
+        // Answered right away, or once the support of every pending context type it names has been added
+        List<SourceKey> activated = demand.onRequested(request.getProjection().getContextTypes(),
+                System.currentTimeMillis(), new Runnable() {
+                    @Override
+                    public void run() {
+                        submitSnapshot(engine, request);
+                    }
+                });
+        if (activated.isEmpty())
+            return;
+        OceanLog.d(TAG, "Adding context support for {} requested sources", activated.size());
+        final Set<String> contextTypes = new HashSet<String>();
+        for (SourceKey key : activated)
+            contextTypes.add(key.getContextType());
+        new RegistrationOrchestrator(activated, registrationParallelism, registrationTimeout, contextSupportRegistrar,
+                new RegistrationOrchestrator.Listener() {
+                    @Override
+                    public void onRegistered(SourceKey key, String contextType) {
+                        engine.onPluginInstalled(key.getPluginId(), contextType);
+                    }
+
+                    @Override
+                    public void onComplete(int registered, int failed) {
+                        demand.onRegistrationEnded(contextTypes);
+                    }
+                }, scheduler).start();
+    }
+
+    /*
+     * Starts the snapshot round of a request, answering it with an error if destroy() shut the scheduler down first.
+     */
+    private void submitSnapshot(SnapshotEngine engine, SnapshotRequest request) {
+        try {
+            engine.requestSnapshot(request);
+        } catch (RejectedExecutionException e) {
+            sendContextRequestError(request.getRequestId(), "ocean has been destroyed", ErrorCodes.CONTEXT_SUPPORT_NOT_FOUND);
+        }
+    }
+
+    /*
+     * Releases the on-demand context support nobody has requested within the idle window. Runs on the control thread.
+     */
+    private final Runnable releaseIdleSupport = new Runnable() {
+        @Override
+        public void run() {
+            SnapshotEngine engine = oceanRuntime.this.engine;
+            for (SourceKey key : demand.releaseIdle(System.currentTimeMillis(), supportIdle)) {
+                if (engine != null)
+                    engine.onSourceReleased(key);
+                // Null if the registration failed; support added by a late success is removed when it arrives
+                ContextSupportInfo info = supportInfos.remove(key);
+                if (info != null) {
+                    OceanLog.d(TAG, "Releasing idle context support for {}", key);
+                    removeSupport(key, info);
+                }
             }
+        }
+    };
 
-            // Send the context event
-            //yettodo: How to pass all this context information in to the contextSnapShotInfo class?
-            sendContextEvent(requestId, new SecuredContextInfo(new MyContextSnapShot(contextSnapShot),
-                    PrivacyRiskLevel.LOW), VALID_CONTEXT_DURATION);
+    /*
+     * (Re)schedules the periodic release of idle on-demand support. Does nothing in the SUPPORT_ALL mode.
+     */
+    private synchronized void startIdleRelease() {
+        stopIdleRelease();
+        if (!SUPPORT_ON_DEMAND.equals(supportMode) || scheduler == null)
+            return;
+        long period = Math.max(1000, supportIdle / 2);
+        idleRelease = scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                callbacks.executeControl(releaseIdleSupport);
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
 
-        } else {
-            sendContextRequestError(requestId, "NO_CONTEXT_SUPPORT for " + contextType, ErrorCodes.CONTEXT_SUPPORT_NOT_FOUND);
+    private synchronized void stopIdleRelease() {
+        if (idleRelease != null) {
+            idleRelease.cancel(false);
+            idleRelease = null;
         }
     }
 
-    @Override
-    public void handleConfiguredContextRequest(UUID requestId, String contextType, Bundle config) {
-        // Warn that we don't handle configured requests
-        Log.w(TAG, "handleConfiguredContextRequest called, but we don't support configuration!");
-        // Drop the config and default to handleContextRequest
-        handleContextRequest(requestId, contextType);
+    /*
+     * Forgets the context support and on-demand demand registered with the current session, so that nothing is removed
+     * or trusted through handles of a session that is gone. Runs on the control thread.
+     */
+    private void resetSessionState() {
+        supportInfos.clear();
+        demand.clear();
+    }
+
+    /*
+     * Removes context support added by ocean.
+     */
+    private void removeSupport(SourceKey key, ContextSupportInfo info) {
+        ContextHandler handler = this.handler;
+        if (handler == null)
+            return;
+        try {
+            handler.removeContextSupport(info);
+        } catch (RemoteException e) {
+            OceanLog.w(TAG, "Removing context support for {} failed: {}", key, e);
+        }
+    }
+
+    /*
+     * Answers a METRICS request with a copy of the engine's current metrics.
+     */
+    private void sendMetrics(UUID requestId) {
+        SnapshotEngine engine = this.engine;
+        if (engine != null)
+            sendContextEvent(requestId, new SecuredContextInfo(engine.getMetricsInfo(), PrivacyRiskLevel.LOW), VALID_CONTEXT_DURATION);
+        else
+            sendContextRequestError(requestId, "ocean is not initialized", ErrorCodes.CONTEXT_SUPPORT_NOT_FOUND);
+    }
+
+    /*
+     * Answers an aggregates request by evaluating the requested windows over the samples collected so far.
+     */
+    private void sendAggregates(UUID requestId, String[] windows) {
+        SnapshotEngine engine = this.engine;
+        WindowAggregator aggregator = engine != null ? engine.getWindowAggregator() : null;
+        if (aggregator == null) {
+            sendContextRequestError(requestId, "ocean is not initialized", ErrorCodes.CONTEXT_SUPPORT_NOT_FOUND);
+            return;
+        }
+        if (windows == null || windows.length == 0) {
+            sendContextRequestError(requestId, "No windows requested", ErrorCodes.CONTEXT_SUPPORT_NOT_FOUND);
+            return;
+        }
+        List<WindowSpec> specs = new ArrayList<WindowSpec>(windows.length);
+        try {
+            for (String window : windows)
+                specs.add(WindowSpec.parse(window));
+        } catch (IllegalArgumentException e) {
+            sendContextRequestError(requestId, e.getMessage(), ErrorCodes.CONTEXT_SUPPORT_NOT_FOUND);
+            return;
+        }
+        List<SnapShotEntry> entries = aggregator.evaluate(specs, System.currentTimeMillis());
+        sendContextEvent(requestId, new SecuredContextInfo(new ContextAggregates(entries), PrivacyRiskLevel.LOW),
+                VALID_CONTEXT_DURATION);
+    }
+
+    /*
+     * Answers a history request from the history log; the query runs on the log's writer thread.
+     */
+    private void queryHistory(final UUID requestId, Bundle config) {
+        HistoryLog historyLog = this.historyLog;
+        if (historyLog == null) {
+            sendContextRequestError(requestId, "ocean keeps no history", ErrorCodes.CONTEXT_SUPPORT_NOT_FOUND);
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long from = now - DEFAULT_HISTORY_RANGE;
+        long to = now;
+        int kind = HistoryLog.KIND_RESULT;
+        int limit = DEFAULT_HISTORY_LIMIT;
+        if (config != null) {
+            from = config.getLong(ContextHistory.FROM, from);
+            to = config.getLong(ContextHistory.TO, to);
+            if (config.getBoolean(ContextHistory.SNAPSHOTS, false))
+                kind = HistoryLog.KIND_SNAPSHOT;
+            limit = config.getInt(ContextHistory.LIMIT, limit);
+        }
+        historyLog.query(from, to, kind, limit, new HistoryLog.QueryCallback() {
+            @Override
+            public void onRecords(List<SnapShotEntry> entries, long[] recordTimes, int[] recordStarts) {
+                sendContextEvent(requestId, new SecuredContextInfo(new ContextHistory(entries, recordTimes,
+                        recordStarts), PrivacyRiskLevel.LOW), VALID_CONTEXT_DURATION);
+            }
+        });
     }
 
     @Override
     public void updateSettings(ContextPluginSettings settings) {
-        // Not supported
+        applySettings(settings);
     }
 
     @Override
     public void setPowerScheme(PowerScheme scheme) {
-        // Not supported
+        powerScheme = scheme;
+        if (engine != null)
+            engine.setPowerScheme(scheme);
     }
 
 
+    /**
+     * Listeners of the snapshot context type are subscribed to snapshots pushed on every change of ocean's context
+     * store, configured by their listener Bundle (see MyContextSnapShot.MIN_INTERVAL, DEBOUNCE, MAX_STALENESS,
+     * CONTEXT_TYPES and FIELDS).
+     */
     @Override
     public boolean addContextlistener(ContextListenerInformation listenerInfo) {
+        if (!MyContextSnapShot.CONTEXT_TYPE.equalsIgnoreCase(listenerInfo.getContextType()))
+            return true;
+        SnapshotEngine engine = this.engine;
+        if (engine == null || engine.getSnapshotStreamer() == null)
+            return false;
+        if (toResponseId(listenerInfo.getListenerId()) == null) {
+            // Its snapshots could only be broadcast, which would send one listener's projection to every client
+            OceanLog.w(TAG, "Rejecting listener {}: not addressable", listenerInfo.getListenerId());
+            return false;
+        }
+        Bundle config = listenerInfo.getListenerConfig();
+        SnapshotProjection projection = SnapshotProjection.ALL;
+        long minInterval = DEFAULT_LISTENER_MIN_INTERVAL;
+        long debounce = DEFAULT_LISTENER_DEBOUNCE;
+        long maxStaleness = DEFAULT_LISTENER_MAX_STALENESS;
+        if (config != null) {
+            try {
+                projection = SnapshotProjection.of(config.getStringArray(MyContextSnapShot.CONTEXT_TYPES),
+                        config.getStringArray(MyContextSnapShot.FIELDS));
+            } catch (IllegalArgumentException e) {
+                OceanLog.w(TAG, "Rejecting listener {}: {}", listenerInfo.getListenerId(), e.getMessage());
+                return false;
+            }
+            minInterval = Math.max(0, config.getLong(MyContextSnapShot.MIN_INTERVAL, minInterval));
+            debounce = Math.max(0, config.getLong(MyContextSnapShot.DEBOUNCE, debounce));
+            maxStaleness = Math.max(debounce, config.getLong(MyContextSnapShot.MAX_STALENESS, maxStaleness));
+        }
+        engine.getSnapshotStreamer().subscribe(listenerInfo.getListenerId(), projection, minInterval, debounce,
+                maxStaleness);
         return true;
     }
 
+    /**
+     * Stops pushing snapshots to the listener.
+     */
+    @Override
+    public boolean removeContextlistener(ContextListenerInformation listenerInfo) {
+        SnapshotEngine engine = this.engine;
+        return engine != null && engine.getSnapshotStreamer() != null
+                && engine.getSnapshotStreamer().unsubscribe(listenerInfo.getListenerId());
+    }
+
     /*
     *  invokePlugins is used to send the context request for plugins which are not AUTO_REACTIVE. The method should include a way to pass configuration bundles if needed for other context-plugins.
     *
@@ -198,64 +798,198 @@ public class oceanRuntime extends ContextPluginRuntime {
     *  Since getStringRepresentation() works why wouldn't other methods in the contextInfo class be accessible. Clarify with Darren. Do a test implementation and check.
     * */
     public boolean invokePlugins() throws RemoteException {
-        if (!pluginInfoResult.wasSuccessful() || pluginInfoResult == null || handler == null) {
-            return false;
+        SnapshotEngine engine = this.engine;
+        return engine != null && engine.invokePlugins(null);
+    }
+
+    /*
+     * Sends the context requests of the snapshot engine through our ContextHandler, or to the local stand-in for
+     * Dynamix if there is one.
+     */
+    private final SnapshotEngine.ContextDispatcher contextDispatcher = new SnapshotEngine.ContextDispatcher() {
+        @Override
+        public boolean isReady() {
+            return handler != null || localDynamix != null;
         }
-        for (ContextPluginInformation contextPlugingInfo : pluginInfoResult.getContextPluginInformation()) {
-            if (contextPlugingInfo.getPluginId().equals("org.ambientdynamix.contextplugins.ocean")) {
-                continue;
+
+        @Override
+        public void contextRequest(PluginRoute route, SnapshotEngine.ResultCallback callback) throws Exception {
+            OceanLog.v(TAG, "Ocean: context request for {}", route.getKey());
+            final ContextResponse response = new ContextResponse(route, callback);
+            LocalDynamix local = localDynamix;
+            if (local != null) {
+                local.contextRequest(route.getPluginId(), route.getContextType(), response);
+                return;
             }
-            for (String supportedContextTypes : contextPlugingInfo.getSupportedContextTypes()) {
+            handler.contextRequest(route.getPluginId(), route.getContextType(), new IContextRequestCallback.Stub() {
+                @Override
+                public void onSuccess(ContextResult contextResult) throws RemoteException {
+                    response.onSuccess(contextResult);
+                }
 
-                Log.i(TAG, "Ocean: Reached invokePlugins()for " + contextPlugingInfo.getPluginId());
-                handler.contextRequest(contextPlugingInfo.getPluginId(), supportedContextTypes, new IContextRequestCallback.Stub() {
-                    @Override
-                    public void onSuccess(ContextResult contextResult) throws RemoteException {
-                        Log.i(TAG, "Context Request onSuccess");
-                        if (contextResult.hasIContextInfo()) {
-                            Log.i(TAG, "Ocean- Request id was: " + contextResult.getResponseId());
-                            Log.i(TAG, "invokePlugins onSuccess: " + contextResult.getContextType());
-                            IContextInfo nativeInfo = contextResult.getIContextInfo();
-                            String tmp = nativeInfo.getStringRepresentation("text/plain");
-                            Log.i(TAG, "Ocean PPPPPPPPPPPPPPPP:" + contextResult.getContextType() + " " + tmp);
-                            getPluginTypeInfo(nativeInfo, contextResult.getContextType());
-                            Log.i(TAG, "Ocean XXXXXX: ");
-                        } else {
-                            Log.w(TAG, "Error with context request in main loop");
-                        }
-                    }
+                @Override
+                public void onFailure(String s, int i) throws RemoteException {
+                    response.onFailure(s, i);
+                }
+            });
+        }
+    };
 
-                    @Override
-                    public void onFailure(String s, int i) throws RemoteException {
-                        Log.w(TAG, "Context Request onFailiure " + s + " " + i);
-                    }
-                });
+    /**
+     * The answer to one context request. Hands it to a callback worker, which decodes it for the snapshot engine, so
+     * the answering (binder) thread never waits for ocean. Exactly one of the methods must be called.
+     */
+    final class ContextResponse {
+        private final PluginRoute route;
+        private final SnapshotEngine.ResultCallback callback;
+
+        ContextResponse(PluginRoute route, SnapshotEngine.ResultCallback callback) {
+            this.route = route;
+            this.callback = callback;
+        }
+
+        void onSuccess(final ContextResult contextResult) {
+            callbacks.execute(new CallbackExecutor.Task() {
+                @Override
+                public void run() {
+                    OceanLog.v(TAG, "Ocean: context request succeeded for {}", route.getKey());
+                    callback.onSuccess(toSourceResult(route.getPluginId(), contextResult));
+                }
+
+                @Override
+                public void onDropped() {
+                    callback.onDropped();
+                }
+            });
+        }
 
+        void onFailure(final String message, final int errorCode) {
+            callbacks.execute(new CallbackExecutor.Task() {
+                @Override
+                public void run() {
+                    OceanLog.w(TAG, "Context request failed for {}: {} {}", route.getKey(), message, errorCode);
+                    // Only this context type is unsupported; the plugin's other routes stay
+                    SnapshotEngine engine = oceanRuntime.this.engine;
+                    if (errorCode == ErrorCodes.CONTEXT_SUPPORT_NOT_FOUND && engine != null)
+                        engine.onSourceReleased(route.getKey());
+                    callback.onFailure(message, errorCode);
+                }
+
+                @Override
+                public void onDropped() {
+                    callback.onDropped();
+                }
+            });
+        }
+    }
+
+    /*
+     * Sends the snapshots of the snapshot engine to the requesting clients.
+     */
+    private final SnapshotEngine.SnapshotSink snapshotSink = new SnapshotEngine.SnapshotSink() {
+        @Override
+        public void sendSnapshot(UUID requestId, MyContextSnapShot snapShot) {
+            sendContextEvent(requestId, new SecuredContextInfo(snapShot, PrivacyRiskLevel.LOW), VALID_CONTEXT_DURATION);
+        }
+    };
+
+    /*
+     * Sends pushed snapshots to their listener. Listener ids are the UUIDs Dynamix routes context events by; listeners
+     * with other ids are rejected by addContextlistener, so a push that cannot be addressed is dropped.
+     */
+    private final SnapshotStreamer.Sink listenerSink = new SnapshotStreamer.Sink() {
+        @Override
+        public void sendSnapshot(String listenerId, MyContextSnapShot snapShot) {
+            UUID responseId = toResponseId(listenerId);
+            if (responseId == null) {
+                OceanLog.w(TAG, "Dropping snapshot for unaddressable listener {}", listenerId);
+                return;
             }
+            sendContextEvent(responseId, new SecuredContextInfo(snapShot, PrivacyRiskLevel.LOW), VALID_CONTEXT_DURATION);
+        }
+    };
 
+    /*
+     * Returns the UUID context events are sent to for the listener, or null if its id is not a UUID.
+     */
+    private static UUID toResponseId(String listenerId) {
+        if (listenerId == null)
+            return null;
+        try {
+            return UUID.fromString(listenerId);
+        } catch (IllegalArgumentException e) {
+            return null;
         }
-        return true;
     }
 
     /*
-     *When ocean needs to access context results from other plugins as its provided this method is called. It is
-     * implemented for each plugin type supported by ocean.
-     * The jars for the datatypes needs to be in the classpath
-     * yettodo:Resolve the ClassCastException due to class loader issues.
-     */
-    private void getPluginTypeInfo(IContextInfo myNativeInfo, String myContextType) {
-
-        Log.d(TAG, "DDDDD: nativeInfo Class: " + myNativeInfo.getClass());
-        Log.d(TAG, "DDDDD: nativeInfo interface" + myNativeInfo.getClass().getInterfaces()[0]);
-        Log.d(TAG, "DDDDD: myNativeInfo.getClass().getInterfaces()[0].getClassLoader()"+ myNativeInfo.getClass().getInterfaces()[0].getClassLoader());
-        Log.d(TAG, "DDDDD: myNativeInfo.getClass().getClassLoader()" + myNativeInfo.getClass().getClassLoader());
-        //Log.d(TAG, "DDDDD: myNativeInfo.getClass().getInterfaces()[0].getClassLoader()"+ myPhoneCallsInfo.getClass().getClassLoader());
-        //if(nativeInfo instanceof IMyPhoneCallsInfo){
-        if (myContextType.equals("org.ambientdynamix.contextplugins.logger.myphonecalls")) {
-            IMyPhoneCallsInfo myPhoneCallsInfo = (IMyPhoneCallsInfo) myNativeInfo;
-            Log.i(TAG, "Ocean MMMMMMMMMM: " + myPhoneCallsInfo.getMyCallLog());
-        } else {
-            Log.i(TAG, "Ocean LLLLLLLL: " + myContextType + " " + myNativeInfo.getImplementingClassname());
+     * Builds the routing table from the installed plugins. This is the only place the ocean plugin itself is filtered
+     * out by id. In the SUPPORT_ON_DEMAND mode the table starts empty: a source is routed once a request has added its
+     * context support (see requestSnapshot), and unrouted again when that support is released.
+     */
+    private void buildRoutingTable(List<ContextPluginInformation> plugins) {
+        PluginRoutingTable table = PluginRoutingTable.EMPTY;
+        if (!SUPPORT_ON_DEMAND.equals(supportMode)) {
+            for (ContextPluginInformation plugin : plugins) {
+                if (!plugin.getPluginId().equals(OCEAN_PLUGIN_ID))
+                    table = table.withPlugin(plugin.getPluginId(), plugin.getSupportedContextTypes());
+            }
+        }
+        engine.setRoutingTable(table);
+        if (OceanLog.isLoggable(OceanLog.INFO))
+            OceanLog.i(TAG, "Ocean: routing table has {} routes", table.size());
+    }
+
+    /*
+     * Copies the values ocean needs out of a ContextResult, decoding its numeric fields if a ResultDecoder is
+     * registered for its context type.
+     */
+    private SourceResult toSourceResult(String pluginId, ContextResult contextResult) {
+        long expireTime = contextResult.expires() ? contextResult.getExpireTime().getTime() : 0;
+        return decoders.toSourceResult(pluginId, contextResult.getContextType(),
+                contextResult.getTimeStamp().getTime(), expireTime, contextResult.getStringRepresentation("text/plain"),
+                contextResult.hasIContextInfo() ? contextResult.getIContextInfo() : null);
+    }
+
+    /*
+     * Reads the settings ocean understands, keeping the current values for anything missing or malformed.
+     */
+    private void applySettings(ContextPluginSettings settings) {
+        if (settings == null)
+            return;
+        OceanLog.configure(settings);
+        snapshotDeadline = getLongSetting(settings, SNAPSHOT_DEADLINE_SETTING, snapshotDeadline);
+        resultCacheSize = (int) getLongSetting(settings, RESULT_CACHE_SIZE_SETTING, resultCacheSize);
+        maxStaleness = getLongSetting(settings, MAX_STALENESS_SETTING, maxStaleness);
+        historySegmentSize = (int) getLongSetting(settings, HISTORY_SEGMENT_SIZE_SETTING, historySegmentSize);
+        historySegments = (int) getLongSetting(settings, HISTORY_SEGMENTS_SETTING, historySegments);
+        historyRetention = getLongSetting(settings, HISTORY_RETENTION_SETTING, historyRetention);
+        aggregationSamples = (int) getLongSetting(settings, AGGREGATION_SAMPLES_SETTING, aggregationSamples);
+        callbackWorkers = (int) getLongSetting(settings, CALLBACK_WORKERS_SETTING, callbackWorkers);
+        callbackQueueSize = (int) getLongSetting(settings, CALLBACK_QUEUE_SIZE_SETTING, callbackQueueSize);
+        registrationParallelism = (int) getLongSetting(settings, REGISTRATION_PARALLELISM_SETTING,
+                registrationParallelism);
+        registrationTimeout = getLongSetting(settings, REGISTRATION_TIMEOUT_SETTING, registrationTimeout);
+        if (settings.get(SUPPORT_MODE_SETTING) != null)
+            supportMode = settings.get(SUPPORT_MODE_SETTING);
+        supportIdle = getLongSetting(settings, SUPPORT_IDLE_SETTING, supportIdle);
+        if (settings.get(CALLBACK_OVERFLOW_SETTING) != null)
+            callbackOverflow = settings.get(CALLBACK_OVERFLOW_SETTING);
+        if (engine != null) {
+            engine.setSnapshotDeadline(snapshotDeadline);
+            engine.setMaxStaleness(maxStaleness);
+        }
+    }
+
+    private long getLongSetting(ContextPluginSettings settings, String key, long defaultValue) {
+        String value = settings.get(key);
+        if (value == null)
+            return defaultValue;
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            OceanLog.w(TAG, "Invalid {}: {}", key, value);
+            return defaultValue;
         }
     }
 
@@ -263,40 +997,87 @@ public class oceanRuntime extends ContextPluginRuntime {
      * addContextSupportForAllPlugins()
      * With users' permission ocean should have the capability to install relavent/important plugins.
      * If the client does not have any context plugins installed before ocean is installed, this method will add context support to all the
-     * plugins currently avaiable in the dynamix repo and call the method invokePlugins() to start receiving context information from reactive
-     * plugins
+     * plugins currently avaiable in the dynamix repo, at most registrationParallelism at a time, and start requesting context information from
+     * the plugins once every registration has succeeded, failed or timed out
      * However, if the client already has context plugins installed, ocean will not add context support for any additional context plugins,
      * respecting the users preferences.
+     * In the SUPPORT_ON_DEMAND mode, every available plugin is only listed; context support for a context type is added when a request
+     * first names it (a request naming none names them all), and released again once no request has named it for supportIdleMs.
      * yettodo: Come up with a permission scheme and a list of context plugins to be installed by ocean at this point. Write now the implementation
      * is at two extremes. i.e.either installs all or stick to the plugins already installed. Once a decision model is designed the recommended context
      * plugins should be installed at this point.
      */
     public boolean addContextSupportForAllPlugins() throws RemoteException {
-        Log.d(TAG, "Ocean: Reached addContextSupportForAllPlugins");
+        OceanLog.d(TAG, "Ocean: Reached addContextSupportForAllPlugins");
         if(!pluginInfoResult.wasSuccessful()||pluginInfoResult==null||handler==null||dynamix==null){ //try to make this check a function
             return false;
         }
-        if (pluginInfoResult.getContextPluginInformation().size() == 1) {
+        List<SourceKey> sources = new ArrayList<SourceKey>();
+        boolean onDemand = SUPPORT_ON_DEMAND.equals(supportMode);
+        if (onDemand || pluginInfoResult.getContextPluginInformation().size() == 1) {
             pluginInfoResult = dynamix.getAllContextPluginInformation(); /*yettodo: It is better to get a list of ocean enabled plugins here, which will be a feature of each plugin dynamix has*/
             for (ContextPluginInformation contextPluginInfo : pluginInfoResult.getContextPluginInformation()) {
-                Log.i(TAG, "Ocean: Reached contextPlugingInfo " + contextPluginInfo.getPluginId());
+                OceanLog.d(TAG, "Ocean: Reached contextPlugingInfo {}", contextPluginInfo.getPluginId());
 
                 // if (contextPlugingInfo.getPluginId().equals("org.ambientdynamix.contextplugins.logger")) {
-                if (contextPluginInfo.getPluginId().equals("org.ambientdynamix.contextplugins.ocean")) {
+                if (contextPluginInfo.getPluginId().equals(OCEAN_PLUGIN_ID)) {
                     continue;
                 }
 
                 for (String supportedContextTypes : contextPluginInfo.getSupportedContextTypes()) {
-                    Log.i(TAG, "Ocean: supportedContextTypes " + supportedContextTypes);
-                    //Add context support for each installed plugin
-                    handler.addContextSupport(contextPluginInfo.getPluginId(), supportedContextTypes, contextListener, new IContextSupportCallback.Stub() {
+                    OceanLog.d(TAG, "Ocean: supportedContextTypes {}", supportedContextTypes);
+                    sources.add(new SourceKey(contextPluginInfo.getPluginId(), supportedContextTypes));
+                }
+
+            }
+        } else {
+            OceanLog.d(TAG, "User already has plugins installed");
+        }
+        if (onDemand) {
+            // Nothing is added up front; requests naming a context type add its support (see requestSnapshot)
+            for (SourceKey source : sources)
+                demand.addToCatalog(source);
+            sources.clear();
+            startIdleRelease();
+        }
+        //Add context support for each plugin, a few at a time; the first scheduler window starts once all have ended
+        new RegistrationOrchestrator(sources, registrationParallelism, registrationTimeout, contextSupportRegistrar,
+                registrationListener, scheduler).start();
+        return true;
+    }
+
+    /*
+     * Adds context support for one source through the context handler, handing the outcome to the control thread.
+     */
+    private final RegistrationOrchestrator.Registrar contextSupportRegistrar = new RegistrationOrchestrator.Registrar() {
+        @Override
+        public void register(final SourceKey key, final RegistrationOrchestrator.Callback callback) throws Exception {
+            handler.addContextSupport(key.getPluginId(), key.getContextType(), contextListener,
+                    new IContextSupportCallback.Stub() {
                         @Override
-                        public void onSuccess(ContextSupportInfo contextSupportInfo) throws RemoteException {
-                            Log.i(TAG, "Ocean: Add context support on success " + contextSupportInfo.getContextType());
+                        public void onSuccess(final ContextSupportInfo contextSupportInfo) throws RemoteException {
+                            callbacks.executeControl(new Runnable() {
+                                @Override
+                                public void run() {
+                                    OceanLog.i(TAG, "Ocean: Add context support on success {}",
+                                            contextSupportInfo.getContextType());
+                                    if (SUPPORT_ON_DEMAND.equals(supportMode)
+                                            && !demand.isActive(key.getContextType())) {
+                                        // Released while the registration was in flight: nobody wants it any more
+                                        removeSupport(key, contextSupportInfo);
+                                        callback.onFailure("Released during registration",
+                                                ErrorCodes.CONTEXT_SUPPORT_NOT_FOUND);
+                                        return;
+                                    }
+                                    supportInfos.put(key, contextSupportInfo);
+                                    callback.onSuccess(contextSupportInfo.getContextType());
+                                }
+                            });
                         }
 
                         @Override
                         public void onProgress(int i) throws RemoteException {
+                            callback.onProgress(i);
                         }
 
                         @Override
@@ -304,51 +1085,61 @@ public class oceanRuntime extends ContextPluginRuntime {
                         }
 
                         @Override
-                        public void onFailure(String s, int i) throws RemoteException {
-                            Log.w(TAG, "Call was unsuccessful! Message: " + s + " | Error code: " + i);
+                        public void onFailure(final String s, final int i) throws RemoteException {
+                            callbacks.executeControl(new Runnable() {
+                                @Override
+                                public void run() {
+                                    callback.onFailure(s, i);
+                                }
+                            });
                         }
                     });
-                }
+        }
+    };
 
-            }
-        } else {
-            Log.d(TAG, "User already has plugins installed");
+    /*
+     * Adds a route for every registered source and starts the background refreshes once registration has ended.
+     */
+    private final RegistrationOrchestrator.Listener registrationListener = new RegistrationOrchestrator.Listener() {
+        @Override
+        public void onRegistered(SourceKey key, String contextType) {
+            SnapshotEngine engine = oceanRuntime.this.engine;
+            if (engine != null)
+                engine.onPluginInstalled(key.getPluginId(), contextType);
         }
-        invokePlugins();
-        return true;
-    }
+
+        @Override
+        public void onComplete(int registered, int failed) {
+            SnapshotEngine engine = oceanRuntime.this.engine;
+            if (engine == null)
+                return;
+            engine.getMetrics().onRegistrationComplete(registered, failed, System.currentTimeMillis());
+            // The first scheduler window requests every pull-only route, replacing the former invokePlugins() call
+            engine.startScheduling();
+        }
+    };
 
 
     /**
-     * ContextListner will be used to receive the data from AUTO_REACTIVE plugins.
+     * ContextListner will be used to receive the data from AUTO_REACTIVE plugins. Every pushed result is written into
+     * the snapshot store and marks its route as auto-reactive, so that snapshots use the pushed value instead of
+     * pull-requesting it.
      */
-
-
     private ContextListener contextListener = new ContextListener() {
 
-
         @Override
-        public void onContextResult(ContextResult event) throws RemoteException {
-
-            if (event.hasIContextInfo()) {
-                Log.i(TAG, "OceanPlugin - NNNNNNNNNNNNNNN");
-                Log.i(TAG, "OceanPlugin - Event contains native IContextInfo: " + event.getIContextInfo());
-                IContextInfo nativeInfo = event.getIContextInfo();
-                Log.i(TAG, "OceanPlugin - IContextInfo implementation class: " + nativeInfo.getImplementingClassname());
-                Log.i(TAG, "OceanPlugin - onContextEvent received from plugin: " + event.getResultSource());
-                Log.i(TAG, "OceanPlugin - Event context type: " + event.getContextType());
-                Log.i(TAG, "OceanPlugin - Event timestamp " + event.getTimeStamp().toLocaleString());
-                for (String format : event.getStringRepresentationFormats()) {
-                    Log.i(TAG,
-                            "Event string-based format: " + format + " contained data: "
-                                    + event.getStringRepresentation(format)
-                    );
+        public void onContextResult(final ContextResult event) throws RemoteException {
+            callbacks.execute(new Runnable() {
+                @Override
+                public void run() {
+                    String pluginId = event.getResultSource().getPluginId();
+                    SourceResult result = toSourceResult(pluginId, event);
+                    SnapshotEngine engine = oceanRuntime.this.engine;
+                    if (engine != null)
+                        engine.onPushed(result);
+                    OceanLog.v(TAG, "OceanPlugin - pushed {} from {}", result.getContextType(), pluginId);
                 }
-            }
-            if (event.expires())
-                Log.i(TAG, "OceanPlugin - Event expires at " + event.getExpireTime().toLocaleString());
-            else
-                Log.i(TAG, "OceanPlugin - Event does not expire");
+            });
         }
     };
 
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) The Ambient Dynamix Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.ocean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+/**
+ * Expiry and least-recently-used eviction of the result cache.
+ *
+ * @author Nirandika Wanigasekara
+ */
+public class ContextResultCacheTest {
+    private static final long NOW = 100000;
+    private static final SourceKey A = new SourceKey("plugin", "a");
+    private static final SourceKey B = new SourceKey("plugin", "b");
+    private static final SourceKey C = new SourceKey("plugin", "c");
+
+    @Test
+    public void servesAResultUntilItExpires() {
+        ContextResultCache cache = new ContextResultCache(4);
+        SourceResult result = result(A, NOW + 1000);
+        cache.put(A, result, NOW);
+        assertSame(result, cache.getFresh(A, NOW + 999));
+        assertNull(cache.getFresh(A, NOW + 1000));
+        assertEquals(0, cache.size());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void doesNotCacheExpiredResults() {
+        ContextResultCache cache = new ContextResultCache(4);
+        cache.put(A, result(A, NOW - 1), NOW);
+        assertEquals(0, cache.size());
+        assertNull(cache.getFresh(A, NOW));
+    }
+
+    @Test
+    public void expiredResultReplacesTheCachedOne() {
+        ContextResultCache cache = new ContextResultCache(4);
+        cache.put(A, result(A, NOW + 1000), NOW);
+        cache.put(A, result(A, NOW), NOW);
+        assertNull(cache.getFresh(A, NOW));
+    }
+
+    @Test
+    public void servesAResultWithoutExpireTimeForTheDefaultTtl() {
+        ContextResultCache cache = new ContextResultCache(4, 500);
+        SourceResult result = result(A, 0);
+        cache.put(A, result, NOW);
+        assertSame(result, cache.getFresh(A, NOW + 499));
+        assertNull(cache.getFresh(A, NOW + 500));
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsedSource() {
+        ContextResultCache cache = new ContextResultCache(2);
+        cache.put(A, result(A, NOW + 1000), NOW);
+        cache.put(B, result(B, NOW + 1000), NOW);
+        // A is now more recently used than B
+        cache.getFresh(A, NOW);
+        cache.put(C, result(C, NOW + 1000), NOW);
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        assertNull(cache.getFresh(B, NOW));
+        assertEquals("a", cache.getFresh(A, NOW).getContextType());
+        assertEquals("c", cache.getFresh(C, NOW).getContextType());
+    }
+
+    @Test
+    public void removeAndClearForgetResults() {
+        ContextResultCache cache = new ContextResultCache(4);
+        cache.put(A, result(A, NOW + 1000), NOW);
+        cache.put(B, result(B, NOW + 1000), NOW);
+        cache.remove(A);
+        assertNull(cache.getFresh(A, NOW));
+        assertEquals(1, cache.size());
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    private static SourceResult result(SourceKey key, long expireTime) {
+        return new SourceResult(key.getPluginId(), key.getContextType(), NOW, expireTime, "payload");
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) The Ambient Dynamix Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.ocean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.FutureTask;
+
+import org.junit.Test;
+
+/**
+ * Completion of a scatter-gather round: by its responses, by sealing, or by its deadline, and always exactly once.
+ *
+ * @author Nirandika Wanigasekara
+ */
+public class SnapshotAggregateTest {
+    private final List<Boolean> completions = new ArrayList<Boolean>();
+    private final SnapshotAggregate.CompletionListener listener = new SnapshotAggregate.CompletionListener() {
+        @Override
+        public void onComplete(SnapshotAggregate aggregate, boolean timedOut) {
+            completions.add(timedOut);
+        }
+    };
+
+    @Test
+    public void sealingWithNothingOutstandingCompletes() {
+        SnapshotAggregate aggregate = newAggregate(SnapshotProjection.ALL);
+        assertFalse(aggregate.isCompleted());
+        aggregate.seal();
+        assertTrue(aggregate.isCompleted());
+        assertEquals(Collections.singletonList(false), completions);
+    }
+
+    @Test
+    public void completesOnceEveryResponseIsInAndItIsSealed() {
+        SnapshotAggregate aggregate = newAggregate(SnapshotProjection.ALL);
+        aggregate.expect();
+        aggregate.expect();
+        aggregate.expect();
+        aggregate.onResult(result("a"));
+        aggregate.onFailure();
+        aggregate.onSkipped(new SourceKey("plugin", "c"));
+        // Responses arriving while requests are still being dispatched must not complete the round
+        assertFalse(aggregate.isCompleted());
+        aggregate.seal();
+        assertTrue(aggregate.isCompleted());
+        assertEquals(Collections.singletonList(false), completions);
+        assertEquals(1, aggregate.getResults().size());
+        assertEquals(1, aggregate.getFailureCount());
+        assertEquals(Collections.singletonList(new SourceKey("plugin", "c")), aggregate.getSkipped());
+    }
+
+    @Test
+    public void completesWhenTheLastResponseArrivesAfterSealing() {
+        SnapshotAggregate aggregate = newAggregate(SnapshotProjection.ALL);
+        aggregate.expect();
+        aggregate.expect();
+        aggregate.seal();
+        aggregate.onResult(result("a"));
+        assertFalse(aggregate.isCompleted());
+        aggregate.onResult(result("b"));
+        assertTrue(aggregate.isCompleted());
+        assertEquals(2, aggregate.getResults().size());
+    }
+
+    @Test
+    public void deadlineCompletesWithWhatWasCollected() {
+        SnapshotAggregate aggregate = newAggregate(SnapshotProjection.ALL);
+        aggregate.expect();
+        aggregate.expect();
+        aggregate.seal();
+        aggregate.onResult(result("a"));
+        aggregate.expire();
+        assertTrue(aggregate.isCompleted());
+        assertEquals(Collections.singletonList(true), completions);
+        assertEquals(1, aggregate.getResults().size());
+    }
+
+    @Test
+    public void completesExactlyOnce() {
+        SnapshotAggregate aggregate = newAggregate(SnapshotProjection.ALL);
+        aggregate.expect();
+        aggregate.seal();
+        aggregate.expire();
+        // Late responses after the deadline
+        aggregate.onResult(result("a"));
+        aggregate.expire();
+        assertEquals(Collections.singletonList(true), completions);
+        assertTrue(aggregate.getResults().isEmpty());
+    }
+
+    @Test
+    public void completionCancelsTheDeadline() {
+        SnapshotAggregate aggregate = newAggregate(SnapshotProjection.ALL);
+        FutureTask<Void> deadline = newDeadline();
+        aggregate.expect();
+        aggregate.setDeadline(deadline);
+        aggregate.seal();
+        aggregate.onResult(result("a"));
+        assertTrue(deadline.isCancelled());
+    }
+
+    @Test
+    public void deadlineSetAfterCompletionIsCancelled() {
+        SnapshotAggregate aggregate = newAggregate(SnapshotProjection.ALL);
+        aggregate.seal();
+        FutureTask<Void> deadline = newDeadline();
+        aggregate.setDeadline(deadline);
+        assertTrue(deadline.isCancelled());
+    }
+
+    @Test
+    public void coveredRequestsAttachUntilCompletion() {
+        SnapshotAggregate aggregate = newAggregate(SnapshotProjection.of(new String[]{"a", "b"}, null));
+        SnapshotRequest narrower = request(SnapshotProjection.of(new String[]{"a"}, null));
+        assertTrue(aggregate.attach(narrower));
+        assertFalse(aggregate.attach(request(SnapshotProjection.of(new String[]{"c"}, null))));
+        assertFalse(aggregate.attach(request(SnapshotProjection.ALL)));
+        aggregate.seal();
+        assertFalse(aggregate.attach(request(SnapshotProjection.of(new String[]{"b"}, null))));
+        assertEquals(2, aggregate.getRequests().size());
+        assertSame(narrower, aggregate.getRequests().get(1));
+    }
+
+    private SnapshotAggregate newAggregate(SnapshotProjection projection) {
+        return new SnapshotAggregate(request(projection), listener);
+    }
+
+    private static SnapshotRequest request(SnapshotProjection projection) {
+        return new SnapshotRequest(UUID.randomUUID(), SnapshotRequest.FULL, projection);
+    }
+
+    private static SourceResult result(String contextType) {
+        return new SourceResult("plugin", contextType, 1, 0, "payload");
+    }
+
+    private static FutureTask<Void> newDeadline() {
+        return new FutureTask<Void>(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }, null);
+    }
+}
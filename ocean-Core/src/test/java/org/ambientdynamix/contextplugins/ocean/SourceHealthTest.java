@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) The Ambient Dynamix Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.ocean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Transitions of the per-source circuit breaker and the latency-derived timeout.
+ *
+ * @author Nirandika Wanigasekara
+ */
+public class SourceHealthTest {
+    private static final long OPENED = 10000;
+
+    private final SourceHealth health = new SourceHealth();
+
+    @Test
+    public void staysClosedBelowTheFailureThreshold() {
+        for (int i = 1; i < SourceHealth.FAILURE_THRESHOLD; i++)
+            health.onFailure(OPENED, OPENED - 1);
+        assertFalse(health.isOpen());
+        assertTrue(health.allowRequest(OPENED));
+    }
+
+    @Test
+    public void successResetsTheConsecutiveFailures() {
+        for (int i = 1; i < SourceHealth.FAILURE_THRESHOLD; i++)
+            health.onFailure(OPENED, OPENED - 1);
+        health.onSuccess();
+        health.onFailure(OPENED, OPENED - 1);
+        assertFalse(health.isOpen());
+    }
+
+    @Test
+    public void opensAfterConsecutiveFailuresAndLetsOneProbeThrough() {
+        open();
+        assertTrue(health.isOpen());
+        assertFalse(health.allowRequest(OPENED + SourceHealth.BASE_BACKOFF - 1));
+        assertTrue(health.allowRequest(OPENED + SourceHealth.BASE_BACKOFF));
+        assertFalse(health.allowRequest(OPENED + SourceHealth.BASE_BACKOFF));
+    }
+
+    @Test
+    public void successfulProbeCloses() {
+        open();
+        assertTrue(health.allowRequest(OPENED + SourceHealth.BASE_BACKOFF));
+        health.onSuccess();
+        assertFalse(health.isOpen());
+        assertTrue(health.allowRequest(OPENED + SourceHealth.BASE_BACKOFF));
+    }
+
+    @Test
+    public void failedProbeDoublesTheBackoff() {
+        open();
+        long probe = OPENED + SourceHealth.BASE_BACKOFF;
+        assertTrue(health.allowRequest(probe));
+        health.onFailure(probe + 1, probe);
+        assertTrue(health.isOpen());
+        assertFalse(health.allowRequest(probe + 1 + 2 * SourceHealth.BASE_BACKOFF - 1));
+        assertTrue(health.allowRequest(probe + 1 + 2 * SourceHealth.BASE_BACKOFF));
+    }
+
+    @Test
+    public void backoffIsCapped() {
+        open();
+        long now = OPENED;
+        for (int i = 0; i < 20; i++) {
+            now += SourceHealth.MAX_BACKOFF;
+            assertTrue(health.allowRequest(now));
+            health.onFailure(now, now);
+        }
+        assertFalse(health.allowRequest(now + SourceHealth.MAX_BACKOFF - 1));
+        assertTrue(health.allowRequest(now + SourceHealth.MAX_BACKOFF));
+    }
+
+    @Test
+    public void failuresOfRequestsSentBeforeOpeningAreIgnored() {
+        open();
+        // Timeouts of the requests that were in flight when the breaker opened
+        health.onFailure(OPENED + 100, OPENED - 500);
+        health.onFailure(OPENED + 200, OPENED - 400);
+        assertTrue(health.allowRequest(OPENED + SourceHealth.BASE_BACKOFF));
+    }
+
+    @Test
+    public void droppedProbeIsHandedBack() {
+        open();
+        long probe = OPENED + SourceHealth.BASE_BACKOFF;
+        assertTrue(health.allowRequest(probe));
+        health.onAbandoned(probe + 10, probe);
+        assertTrue(health.isOpen());
+        assertFalse(health.allowRequest(probe + 10 + SourceHealth.BASE_BACKOFF - 1));
+        assertTrue(health.allowRequest(probe + 10 + SourceHealth.BASE_BACKOFF));
+    }
+
+    @Test
+    public void droppedProbeDoesNotDoubleTheBackoff() {
+        open();
+        long probe = OPENED + SourceHealth.BASE_BACKOFF;
+        assertTrue(health.allowRequest(probe));
+        health.onAbandoned(probe, probe);
+        long next = probe + SourceHealth.BASE_BACKOFF;
+        assertTrue(health.allowRequest(next));
+        health.onFailure(next, next);
+        // The first open used BASE_BACKOFF; the dropped probe did not count, so this failure doubles it once
+        assertFalse(health.allowRequest(next + 2 * SourceHealth.BASE_BACKOFF - 1));
+        assertTrue(health.allowRequest(next + 2 * SourceHealth.BASE_BACKOFF));
+    }
+
+    @Test
+    public void droppedRequestOfAClosedBreakerChangesNothing() {
+        health.onAbandoned(OPENED, OPENED - 1);
+        assertFalse(health.isOpen());
+        assertTrue(health.allowRequest(OPENED));
+    }
+
+    @Test
+    public void droppedRequestSentBeforeOpeningDoesNotReleaseTheProbe() {
+        open();
+        long probe = OPENED + SourceHealth.BASE_BACKOFF;
+        assertTrue(health.allowRequest(probe));
+        health.onAbandoned(probe, OPENED - 1);
+        assertFalse(health.allowRequest(probe + SourceHealth.BASE_BACKOFF));
+    }
+
+    @Test
+    public void timeoutIsTheMaximumUntilEnoughLatenciesAreKnown() {
+        LatencyHistogram latency = new LatencyHistogram();
+        for (int i = 1; i < SourceHealth.MIN_LATENCY_SAMPLES; i++)
+            latency.record(10);
+        assertEquals(5000, health.getTimeout(latency, 5000));
+    }
+
+    @Test
+    public void timeoutFollowsTheLatencyWithinItsBounds() {
+        LatencyHistogram fast = new LatencyHistogram();
+        for (int i = 0; i < SourceHealth.MIN_LATENCY_SAMPLES; i++)
+            fast.record(10);
+        assertEquals(SourceHealth.MIN_TIMEOUT, health.getTimeout(fast, 5000));
+
+        LatencyHistogram slow = new LatencyHistogram();
+        for (int i = 0; i < SourceHealth.MIN_LATENCY_SAMPLES; i++)
+            slow.record(4000);
+        assertEquals(5000, new SourceHealth().getTimeout(slow, 5000));
+
+        LatencyHistogram medium = new LatencyHistogram();
+        for (int i = 0; i < SourceHealth.MIN_LATENCY_SAMPLES; i++)
+            medium.record(1000);
+        long timeout = new SourceHealth().getTimeout(medium, 5000);
+        assertTrue(timeout >= 2000 && timeout <= 2000 + 2000 / 16 + 1);
+    }
+
+    private void open() {
+        for (int i = 0; i < SourceHealth.FAILURE_THRESHOLD; i++)
+            health.onFailure(OPENED, OPENED - 1);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) The Ambient Dynamix Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.ocean;
+
+/**
+ * 64-bit content fingerprints of snapshot entries and snapshots. A source's hash covers what it reports (plugin id,
+ * context type, payload and decoded fields) but not when it reported it, so a result that repeats the previous one
+ * hashes the same. A snapshot's hash is the sum of its mixed source hashes, which does not depend on the entry order
+ * and can be updated one source at a time.
+ *
+ * @author Nirandika Wanigasekara
+ */
+final class ContentHash {
+    // Hash of nothing; never returned for a source
+    static final long NONE = 0;
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private ContentHash() {
+    }
+
+    /**
+     * Returns the hash of one source's content.
+     */
+    static long of(String pluginId, String contextType, String payload, String[] fieldNames, double[] fieldValues) {
+        long hash = FNV_OFFSET;
+        hash = add(hash, pluginId);
+        hash = add(hash, contextType);
+        hash = add(hash, payload);
+        for (int i = 0; i < fieldNames.length; i++) {
+            hash = add(hash, fieldNames[i]);
+            hash = add(hash, Double.doubleToLongBits(fieldValues[i]));
+        }
+        return hash != NONE ? hash : 1;
+    }
+
+    /**
+     * Returns the hash of a source listed as skipped.
+     */
+    static long ofSkipped(String pluginId, String contextType) {
+        long hash = add(add(add(FNV_OFFSET, pluginId), contextType), 0x736b6970L);
+        return hash != NONE ? hash : 1;
+    }
+
+    /**
+     * Adds a source hash to a snapshot hash.
+     */
+    static long combine(long snapshotHash, long sourceHash) {
+        return snapshotHash + mix(sourceHash);
+    }
+
+    private static long add(long hash, String value) {
+        if (value == null)
+            return (hash ^ 0xff) * FNV_PRIME;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            hash = (hash ^ (c & 0xff)) * FNV_PRIME;
+            hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+        }
+        // Terminates the string, so that ("ab", "c") and ("a", "bc") differ
+        return (hash ^ 0xfe) * FNV_PRIME;
+    }
+
+    private static long add(long hash, long value) {
+        for (int shift = 0; shift < 64; shift += 8)
+            hash = (hash ^ ((value >>> shift) & 0xff)) * FNV_PRIME;
+        return hash;
+    }
+
+    // Spreads the bits of a source hash, so that sums of related hashes do not cancel out
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
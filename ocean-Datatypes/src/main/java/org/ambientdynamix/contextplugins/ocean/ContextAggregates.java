@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) The Ambient Dynamix Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.ocean;
+
+import java.util.List;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * Time-windowed aggregates over the numeric fields ocean decodes from incoming context results. The windows are given
+ * in the configuration Bundle of the context request as a String array under WINDOWS, each of the form
+ *
+ * <pre>
+ * contextType:field:window:length:function
+ * </pre>
+ *
+ * where window is "sliding" (the last length ms) or "tumbling" (the last complete period of length ms), and function
+ * is "count", "min", "max", "mean" or "rate" (change per minute), e.g.
+ * "org.ambientdynamix.contextplugins.ambientsound:db:sliding:300000:mean".
+ * <p/>
+ * Each window is answered with one entry, in request order, whose payload is the window spec and whose fields are
+ * "value", "count", "start" and "end".
+ */
+class ContextAggregates extends MyContextSnapShot {
+    /**
+     * Required CREATOR field that generates instances of this Parcelable class from a Parcel.
+     *
+     * @see //http://developer.android.com/reference/android/os/Parcelable.Creator.html
+     */
+    public static Parcelable.Creator<ContextAggregates> CREATOR = new Parcelable.Creator<ContextAggregates>() {
+        public ContextAggregates createFromParcel(Parcel in) {
+            return new ContextAggregates(in.createByteArray());
+        }
+
+        public ContextAggregates[] newArray(int size) {
+            return new ContextAggregates[size];
+        }
+    };
+    // Public static variable for our supported context type
+    public static String CONTEXT_TYPE = "org.ambientdynamix.contextplugins.ocean.aggregates";
+    // Configuration key (String array): the window specs
+    public static final String WINDOWS = "windows";
+
+    /**
+     * Create a ContextAggregates
+     *
+     * @param entries One entry per window
+     */
+    public ContextAggregates(List<SnapShotEntry> entries) {
+        super(entries, 0, false);
+    }
+
+    private ContextAggregates(byte[] encoded) {
+        super(encoded);
+    }
+
+    @Override
+    public String getContextType() {
+        return CONTEXT_TYPE;
+    }
+}
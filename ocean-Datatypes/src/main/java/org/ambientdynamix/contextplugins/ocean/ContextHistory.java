@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) The Ambient Dynamix Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.ocean;
+
+import java.util.List;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * The context results (or snapshots) ocean recorded in a time range, in the order they were recorded. A history is a
+ * MyContextSnapShot whose entries each carry their own time stamp; the entries of recorded snapshots are returned one
+ * after another. Each record (a single result, or a whole snapshot) is described by a record header giving the time it
+ * was recorded and the index of its first entry, so the recorded snapshots can be told apart again. A record's entries
+ * run up to the first entry of the next record.
+ * <p/>
+ * The range is given in the configuration Bundle of the context request; without one the last hour is returned.
+ */
+class ContextHistory extends MyContextSnapShot {
+    /**
+     * Required CREATOR field that generates instances of this Parcelable class from a Parcel.
+     *
+     * @see //http://developer.android.com/reference/android/os/Parcelable.Creator.html
+     */
+    public static Parcelable.Creator<ContextHistory> CREATOR = new Parcelable.Creator<ContextHistory>() {
+        public ContextHistory createFromParcel(Parcel in) {
+            return new ContextHistory(in.createByteArray(), in.createLongArray(), in.createIntArray());
+        }
+
+        public ContextHistory[] newArray(int size) {
+            return new ContextHistory[size];
+        }
+    };
+    // Public static variable for our supported context type
+    public static String CONTEXT_TYPE = "org.ambientdynamix.contextplugins.ocean.history";
+    // Configuration key (long): the start of the range (ms since epoch)
+    public static final String FROM = "historyFrom";
+    // Configuration key (long): the end of the range (ms since epoch), now if missing
+    public static final String TO = "historyTo";
+    // Configuration key (boolean): return the entries of the recorded snapshots instead of the individual results
+    public static final String SNAPSHOTS = "historySnapshots";
+    // Configuration key (int): the largest number of entries returned
+    public static final String LIMIT = "historyLimit";
+
+    private final long[] recordTimes;
+    private final int[] recordStarts;
+
+    /**
+     * Create a ContextHistory
+     *
+     * @param entries      The recorded entries, in the order they were recorded
+     * @param recordTimes  The time (ms since epoch) each record was recorded
+     * @param recordStarts The index of the first entry of each record, in the order of recordTimes
+     */
+    public ContextHistory(List<SnapShotEntry> entries, long[] recordTimes, int[] recordStarts) {
+        super(entries, 0, false);
+        if (recordTimes.length != recordStarts.length)
+            throw new IllegalArgumentException("Record times and starts differ in length");
+        this.recordTimes = recordTimes;
+        this.recordStarts = recordStarts;
+    }
+
+    private ContextHistory(byte[] encoded, long[] recordTimes, int[] recordStarts) {
+        super(encoded);
+        this.recordTimes = recordTimes;
+        this.recordStarts = recordStarts;
+    }
+
+    @Override
+    public void writeToParcel(Parcel out, int flags) {
+        super.writeToParcel(out, flags);
+        out.writeLongArray(recordTimes);
+        out.writeIntArray(recordStarts);
+    }
+
+    /**
+     * Returns the number of records in the history.
+     */
+    public int getRecordCount() {
+        return recordTimes.length;
+    }
+
+    /**
+     * Returns the time (ms since epoch) the record was recorded.
+     */
+    public long getRecordTime(int record) {
+        return recordTimes[record];
+    }
+
+    /**
+     * Returns the index of the first entry of the record.
+     */
+    public int getRecordStart(int record) {
+        return recordStarts[record];
+    }
+
+    /**
+     * Returns the number of entries of the record.
+     */
+    public int getRecordEntryCount(int record) {
+        int end = record + 1 < recordStarts.length ? recordStarts[record + 1] : getEntryCount();
+        return end - recordStarts[record];
+    }
+
+    @Override
+    public String getContextType() {
+        return CONTEXT_TYPE;
+    }
+}
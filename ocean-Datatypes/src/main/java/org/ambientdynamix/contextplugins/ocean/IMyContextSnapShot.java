@@ -18,7 +18,7 @@ package org.ambientdynamix.contextplugins.ocean;
 import org.ambientdynamix.api.application.IContextInfo;
 
 /**
- * Represents battery status information
+ * Represents a context snapshot made of per-source entries
  * 
  * @author Darren Carlson
  * 
@@ -26,4 +26,79 @@ import org.ambientdynamix.api.application.IContextInfo;
 public interface IMyContextSnapShot extends IContextInfo {
 
 	public String getMyContextSnapShot();
+
+	/**
+	 * Returns the version of ocean's context store this snapshot was taken from. Pass it back as
+	 * MyContextSnapShot.SINCE_VERSION to receive only the entries changed since.
+	 */
+	public long getVersion();
+
+	/**
+	 * Returns true if this snapshot only holds the entries changed since an earlier version.
+	 */
+	public boolean isDelta();
+
+	/**
+	 * Returns the number of per-source entries in the snapshot.
+	 */
+	public int getEntryCount();
+
+	/**
+	 * Returns the entry at the given index as a SnapShotEntry.
+	 */
+	public SnapShotEntry getEntry(int index);
+
+	public String getEntryPluginId(int index);
+
+	public String getEntryContextType(int index);
+
+	public long getEntryTimeStamp(int index);
+
+	/**
+	 * Returns the expire time of the entry (ms since epoch) or 0 if it does not expire.
+	 */
+	public long getEntryExpireTime(int index);
+
+	public String getEntryPayload(int index);
+
+	/**
+	 * Returns the number of numeric fields decoded from the entry, 0 for context types ocean does not decode.
+	 */
+	public int getEntryFieldCount(int index);
+
+	public String getEntryFieldName(int index, int field);
+
+	public double getEntryFieldValue(int index, int field);
+
+	/**
+	 * Returns the number of sources skipped by this snapshot because their circuit breaker was open or they did not
+	 * answer within their timeout.
+	 */
+	public int getSkippedCount();
+
+	public String getSkippedPluginId(int index);
+
+	public String getSkippedContextType(int index);
+
+	/**
+	 * Returns the number of sources a delta snapshot tells the client to drop, because their plugin was uninstalled
+	 * or their context support released since the client's version. Always 0 for full snapshots.
+	 */
+	public int getRemovedCount();
+
+	public String getRemovedPluginId(int index);
+
+	public String getRemovedContextType(int index);
+
+	/**
+	 * Returns the fingerprint of the snapshot's content, which ignores time stamps. Passing it back as
+	 * MyContextSnapShot.CONTENT_HASH lets ocean answer with a snapshot marked as not modified.
+	 */
+	public long getContentHash();
+
+	/**
+	 * Returns true if this snapshot carries no entries because the content of the snapshot the client already has is
+	 * unchanged.
+	 */
+	public boolean isNotModified();
 }
\ No newline at end of file
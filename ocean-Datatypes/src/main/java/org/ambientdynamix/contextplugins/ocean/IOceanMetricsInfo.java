@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) The Ambient Dynamix Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.ocean;
+
+import org.ambientdynamix.api.application.IContextInfo;
+
+/**
+ * Represents ocean's own runtime metrics: per-source request counters and latency percentiles, and snapshot counters.
+ * Sources are addressed by index, from 0 to getSourceCount() - 1. Latencies are in milliseconds.
+ * 
+ * @author Nirandika Wanigasekara
+ * 
+ */
+public interface IOceanMetricsInfo extends IContextInfo {
+
+	public int getSourceCount();
+
+	public String getSourcePluginId(int index);
+
+	public String getSourceContextType(int index);
+
+	/**
+	 * Returns the number of context requests sent to the source.
+	 */
+	public long getRequestCount(int index);
+
+	public long getSuccessCount(int index);
+
+	public long getFailureCount(int index);
+
+	/**
+	 * Returns the number of results the source pushed to ocean's context listener.
+	 */
+	public long getPushCount(int index);
+
+	/**
+	 * Returns the pushes per minute since the source first pushed a result.
+	 */
+	public double getPushRate(int index);
+
+	public long getLatencyP50(int index);
+
+	public long getLatencyP90(int index);
+
+	public long getLatencyP99(int index);
+
+	public long getLatencyMax(int index);
+
+	/**
+	 * Returns the number of snapshot rounds completed.
+	 */
+	public long getSnapshotCount();
+
+	/**
+	 * Returns the number of snapshot rounds completed by their deadline rather than by the last response.
+	 */
+	public long getTimedOutSnapshotCount();
+
+	public long getCacheHitCount();
+
+	public long getCacheMissCount();
+
+	public long getCacheEvictionCount();
+
+	/**
+	 * Returns the number of sources whose context support was registered in time at startup.
+	 */
+	public int getRegisteredCount();
+
+	/**
+	 * Returns the number of sources whose context support registration failed or timed out at startup.
+	 */
+	public int getRegistrationFailureCount();
+
+	/**
+	 * Returns the time from start until every context support registration had ended, or -1 if they are still
+	 * outstanding.
+	 */
+	public long getRegistrationTime();
+
+	/**
+	 * Returns the time from start until the first snapshot with at least one entry was sent, or -1 if none has been
+	 * sent yet.
+	 */
+	public long getTimeToFirstSnapshot();
+
+	/**
+	 * Returns the number of times ocean was started again after a stop.
+	 */
+	public long getRestartCount();
+
+	/**
+	 * Returns the number of restarts that kept the Dynamix session, context handler and routes from before the stop.
+	 */
+	public long getWarmRestartCount();
+
+	/**
+	 * Returns the time from the last restart until the first snapshot with at least one entry was sent, or -1 if there
+	 * was no restart or no snapshot has been sent since.
+	 */
+	public long getRestartToFirstSnapshot();
+}
@@ -15,14 +15,58 @@
  */
 package org.ambientdynamix.contextplugins.ocean;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
-import android.content.Intent;
-import android.os.BatteryManager;
 import android.os.Parcel;
 import android.os.Parcelable;
+import android.util.Base64;
 
+/**
+ * A context snapshot made of typed per-source entries. The entries are held column-wise and are encoded into a single
+ * compact byte array in which plugin ids and context types are interned into a string table and referenced by id:
+ *
+ * <pre>
+ * byte    format version
+ * long    snapshot version
+ * boolean delta
+ * int     string count, followed by each string as modified UTF-8
+ * int     entry count, followed by each entry as
+ *         int plugin id index, int context type index, long time stamp, long expire time,
+ *         int payload length, payload bytes (UTF-8),
+ *         int field count, followed by each field as int name index, double value
+ * int     skipped source count, followed by each source as int plugin id index, int context type index
+ * int     removed source count, followed by each source as int plugin id index, int context type index
+ * long    content hash
+ * boolean not modified
+ * </pre>
+ *
+ * The encoded array is kept, so writing the snapshot to a Parcel is a single byte array write. The same array, Base64
+ * encoded, is the BINARY_FORMAT string representation; TEXT_FORMAT and JSON_FORMAT are rendered from the columns.
+ * Each representation is built at most once per snapshot, on first use.
+ * <p/>
+ * The snapshot version identifies the state of ocean's context store the snapshot was taken from. A client that
+ * passes it back as SINCE_VERSION in the configuration Bundle of a context request receives a delta snapshot holding
+ * only the entries that changed since then, plus the removed sources: those whose plugin was uninstalled or whose
+ * context support was released since then, which the client should drop. Full snapshots have no removed sources.
+ * <p/>
+ * Skipped sources are those ocean did not wait for: their circuit breaker was open or they did not answer within
+ * their timeout. They have no entry unless an earlier result of theirs was still valid.
+ * <p/>
+ * The content hash fingerprints the entries and skipped sources, but not their time stamps. A client that passes it
+ * back as CONTENT_HASH receives a snapshot without entries marked as not modified if the content is unchanged.
+ */
 class MyContextSnapShot implements IMyContextSnapShot {
     /**
      * Required CREATOR field that generates instances of this Parcelable class from a Parcel.
@@ -47,8 +91,62 @@ class MyContextSnapShot implements IMyContextSnapShot {
     };
     // Public static variable for our supported context type
     public static String CONTEXT_TYPE = "org.ambientdynamix.contextplugins.ocean.mycontextsnapshot";
+    // Configuration key (long): request only the entries changed since this snapshot version
+    public static final String SINCE_VERSION = "sinceVersion";
+    // Configuration key (boolean): request the full snapshot even if SINCE_VERSION is set
+    public static final String FULL_SNAPSHOT = "fullSnapshot";
+    // Configuration key (String array): only request and send the sources of these context types
+    public static final String CONTEXT_TYPES = "contextTypes";
+    // Configuration key (String array): only send these decoded fields, each as "contextType:field"; entries of
+    // these context types carry no text payload
+    public static final String FIELDS = "fields";
+    // Configuration key (long): the content hash of the last full snapshot the client received; if the content is
+    // unchanged, a snapshot marked as not modified is sent instead. Ignored for delta requests
+    public static final String CONTENT_HASH = "contentHash";
+    // Listener configuration keys (long, ms): the shortest time between two pushed snapshots, the time without changes
+    // a push waits for, and the longest time a change may be held back by that wait. CONTEXT_TYPES and FIELDS apply
+    // to listeners as well
+    public static final String MIN_INTERVAL = "minIntervalMs";
+    public static final String DEBOUNCE = "debounceMs";
+    public static final String MAX_STALENESS = "maxStalenessMs";
+    // String representation formats
+    public static final String TEXT_FORMAT = "text/plain";
+    public static final String JSON_FORMAT = "application/json";
+    // The binary layout, Base64 encoded without line breaks
+    public static final String BINARY_FORMAT = "application/x-ocean-snapshot;base64";
+    private static final Set<String> FORMATS = Collections.unmodifiableSet(new HashSet<String>(
+            Arrays.asList(TEXT_FORMAT, JSON_FORMAT, BINARY_FORMAT)));
+    // Version of the binary layout, written as the first byte
+    private static final byte FORMAT_VERSION = 1;
+    // Charset overloads of String are not available on the oldest platform versions Dynamix supports
+    private static final String UTF8 = "UTF-8";
+    private static final List<SnapShotEntry> EMPTY = Collections.emptyList();
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
     // Private data
+    private byte[] encoded;
+    private long version;
+    private boolean delta;
+    private String[] strings;
+    private int[] pluginIds;
+    private int[] contextTypes;
+    private long[] timeStamps;
+    private long[] expireTimes;
+    private String[] payloads;
+    // The fields of entry i are at fieldOffsets[i] (inclusive) to fieldOffsets[i + 1] (exclusive)
+    private int[] fieldOffsets;
+    private int[] fieldNames;
+    private double[] fieldValues;
+    private int[] skippedPluginIds;
+    private int[] skippedContextTypes;
+    private int[] removedPluginIds;
+    private int[] removedContextTypes;
+    private long contentHash;
+    private boolean notModified;
     private String myContextSnapShot;
+    // Rendered string representations; racy but idempotent, like String.hashCode
+    private String text;
+    private String json;
+    private String binary;
 
     /**
      * Returns the type of the context information represented by the IContextInfo. This string must match one of the
@@ -76,9 +174,7 @@ class MyContextSnapShot implements IMyContextSnapShot {
      */
     @Override
     public Set<String> getStringRepresentationFormats() {
-        Set<String> formats = new HashSet<String>();
-        formats.add("text/plain");
-        return formats;
+        return FORMATS;
     }
 
     /**
@@ -87,21 +183,144 @@ class MyContextSnapShot implements IMyContextSnapShot {
      */
     @Override
     public String getStringRepresentation(String format) {
-        if (format.equalsIgnoreCase("text/plain"))
-            return "Context Snapshot: " + myContextSnapShot;
-        else
+        if (format.equalsIgnoreCase(TEXT_FORMAT)) {
+            String rendered = text;
+            if (rendered == null) {
+                rendered = "Context Snapshot: " + (notModified ? "not modified" : getMyContextSnapShot());
+                text = rendered;
+            }
+            return rendered;
+        } else if (format.equalsIgnoreCase(JSON_FORMAT)) {
+            String rendered = json;
+            if (rendered == null) {
+                rendered = toJson();
+                json = rendered;
+            }
+            return rendered;
+        } else if (format.equalsIgnoreCase(BINARY_FORMAT)) {
+            String rendered = binary;
+            if (rendered == null) {
+                rendered = Base64.encodeToString(encoded, Base64.NO_WRAP);
+                binary = rendered;
+            }
+            return rendered;
+        } else
             // Format not supported, so return an empty string
             return "";
     }
 
     /**
-     * Create a MyBatteryLevelInfo
+     * Create a MyContextSnapShot
+     *
+     * @param entries The per-source entries of the snapshot
+     * @param version The version of the context store the entries were taken from
+     * @param delta   True if the entries are only those changed since an earlier version
+     */
+    public MyContextSnapShot(List<SnapShotEntry> entries, long version, boolean delta) {
+        this(entries, new String[0], new String[0], version, delta);
+    }
+
+    /**
+     * Create a MyContextSnapShot with skipped sources
      *
-     * @param //batteryLevel The device's detected battery level as a percentage of 100.
+     * @param entries             The per-source entries of the snapshot
+     * @param skippedPluginIds    The plugins of the skipped sources
+     * @param skippedContextTypes The context types of the skipped sources, in the order of skippedPluginIds
+     * @param version             The version of the context store the entries were taken from
+     * @param delta               True if the entries are only those changed since an earlier version
      */
-    public MyContextSnapShot(StringBuffer contextSnapShot) {
-        myContextSnapShot = contextSnapShot.toString();
+    public MyContextSnapShot(List<SnapShotEntry> entries, String[] skippedPluginIds, String[] skippedContextTypes,
+                             long version, boolean delta) {
+        this(entries, skippedPluginIds, skippedContextTypes, new String[0], new String[0], version, delta);
+    }
+
+    /**
+     * Create a delta MyContextSnapShot with skipped and removed sources
+     *
+     * @param entries             The entries changed since the client's version
+     * @param skippedPluginIds    The plugins of the skipped sources
+     * @param skippedContextTypes The context types of the skipped sources, in the order of skippedPluginIds
+     * @param removedPluginIds    The plugins of the sources removed since the client's version
+     * @param removedContextTypes The context types of the removed sources, in the order of removedPluginIds
+     * @param version             The version of the context store the entries were taken from
+     */
+    public MyContextSnapShot(List<SnapShotEntry> entries, String[] skippedPluginIds, String[] skippedContextTypes,
+                             String[] removedPluginIds, String[] removedContextTypes, long version) {
+        this(entries, skippedPluginIds, skippedContextTypes, removedPluginIds, removedContextTypes, version, true);
+    }
+
+    private MyContextSnapShot(List<SnapShotEntry> entries, String[] skippedPluginIds, String[] skippedContextTypes,
+                              String[] removedPluginIds, String[] removedContextTypes, long version, boolean delta) {
+        if (skippedPluginIds.length != skippedContextTypes.length)
+            throw new IllegalArgumentException("Skipped plugin ids and context types differ in length");
+        if (removedPluginIds.length != removedContextTypes.length)
+            throw new IllegalArgumentException("Removed plugin ids and context types differ in length");
+        this.version = version;
+        this.delta = delta;
+        int count = entries.size();
+        Map<String, Integer> ids = new HashMap<String, Integer>();
+        pluginIds = new int[count];
+        contextTypes = new int[count];
+        timeStamps = new long[count];
+        expireTimes = new long[count];
+        payloads = new String[count];
+        fieldOffsets = new int[count + 1];
+        long hash = ContentHash.NONE;
+        int fieldCount = 0;
+        for (int i = 0; i < count; i++)
+            fieldCount += entries.get(i).getFieldCount();
+        fieldNames = new int[fieldCount];
+        fieldValues = new double[fieldCount];
+        int field = 0;
+        for (int i = 0; i < count; i++) {
+            SnapShotEntry entry = entries.get(i);
+            pluginIds[i] = intern(ids, entry.getPluginId());
+            contextTypes[i] = intern(ids, entry.getContextType());
+            timeStamps[i] = entry.getTimeStamp();
+            expireTimes[i] = entry.getExpireTime();
+            payloads[i] = entry.getPayload() != null ? entry.getPayload() : "";
+            fieldOffsets[i] = field;
+            for (int f = 0; f < entry.getFieldCount(); f++, field++) {
+                fieldNames[field] = intern(ids, entry.getFieldName(f));
+                fieldValues[field] = entry.getFieldValue(f);
+            }
+            hash = ContentHash.combine(hash, entry.getContentHash());
+        }
+        fieldOffsets[count] = field;
+        this.skippedPluginIds = new int[skippedPluginIds.length];
+        this.skippedContextTypes = new int[skippedPluginIds.length];
+        for (int i = 0; i < skippedPluginIds.length; i++) {
+            this.skippedPluginIds[i] = intern(ids, skippedPluginIds[i]);
+            this.skippedContextTypes[i] = intern(ids, skippedContextTypes[i]);
+            hash = ContentHash.combine(hash, ContentHash.ofSkipped(skippedPluginIds[i], skippedContextTypes[i]));
+        }
+        // Not part of the content hash, which only describes full snapshots
+        this.removedPluginIds = new int[removedPluginIds.length];
+        this.removedContextTypes = new int[removedPluginIds.length];
+        for (int i = 0; i < removedPluginIds.length; i++) {
+            this.removedPluginIds[i] = intern(ids, removedPluginIds[i]);
+            this.removedContextTypes[i] = intern(ids, removedContextTypes[i]);
+        }
+        contentHash = hash;
+        strings = new String[ids.size()];
+        for (Map.Entry<String, Integer> id : ids.entrySet())
+            strings[id.getValue()] = id.getKey();
+        encoded = encode();
+    }
 
+    /**
+     * Returns a snapshot without entries telling the client that the content of the snapshot with the given hash has
+     * not changed.
+     *
+     * @param version     The version of the context store the content was checked against
+     * @param contentHash The content hash the client passed
+     */
+    static MyContextSnapShot notModified(long version, long contentHash) {
+        MyContextSnapShot snapShot = new MyContextSnapShot(EMPTY, new String[0], new String[0], version, false);
+        snapShot.contentHash = contentHash;
+        snapShot.notModified = true;
+        snapShot.encoded = snapShot.encode();
+        return snapShot;
     }
 
 
@@ -116,14 +335,22 @@ class MyContextSnapShot implements IMyContextSnapShot {
      * Used by Parcelable when sending (serializing) data over IPC.
      */
     public void writeToParcel(Parcel out, int flags) {
-        out.writeString(myContextSnapShot);
+        out.writeByteArray(encoded);
     }
 
     /**
      * Used by the Parcelable.Creator when reconstructing (deserializing) data sent over IPC.
      */
     private MyContextSnapShot(final Parcel in) {
-        myContextSnapShot = in.readString();
+        this(in.createByteArray());
+    }
+
+    /**
+     * Reconstructs a snapshot from its binary layout.
+     */
+    MyContextSnapShot(byte[] encoded) {
+        this.encoded = encoded;
+        decode();
     }
 
     /**
@@ -136,8 +363,364 @@ class MyContextSnapShot implements IMyContextSnapShot {
         return 0;
     }
 
+    /**
+     * Returns the text of all entries, one per line.
+     */
     @Override
     public String getMyContextSnapShot() {
+        if (myContextSnapShot == null) {
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < payloads.length; i++) {
+                text.append(strings[pluginIds[i]]).append(' ').append(strings[contextTypes[i]]).append(": ")
+                        .append(payloads[i]).append('\n');
+            }
+            for (int i = 0; i < skippedPluginIds.length; i++) {
+                text.append(strings[skippedPluginIds[i]]).append(' ').append(strings[skippedContextTypes[i]])
+                        .append(": skipped\n");
+            }
+            for (int i = 0; i < removedPluginIds.length; i++) {
+                text.append(strings[removedPluginIds[i]]).append(' ').append(strings[removedContextTypes[i]])
+                        .append(": removed\n");
+            }
+            myContextSnapShot = text.toString();
+        }
         return myContextSnapShot;
     }
-}
\ No newline at end of file
+
+    @Override
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public boolean isDelta() {
+        return delta;
+    }
+
+    @Override
+    public long getContentHash() {
+        return contentHash;
+    }
+
+    @Override
+    public boolean isNotModified() {
+        return notModified;
+    }
+
+    @Override
+    public int getEntryCount() {
+        return payloads.length;
+    }
+
+    @Override
+    public SnapShotEntry getEntry(int index) {
+        int fieldCount = getEntryFieldCount(index);
+        String[] names = new String[fieldCount];
+        double[] values = new double[fieldCount];
+        for (int f = 0; f < fieldCount; f++) {
+            names[f] = getEntryFieldName(index, f);
+            values[f] = getEntryFieldValue(index, f);
+        }
+        return new SnapShotEntry(getEntryPluginId(index), getEntryContextType(index), getEntryTimeStamp(index),
+                getEntryExpireTime(index), getEntryPayload(index), names, values);
+    }
+
+    @Override
+    public String getEntryPluginId(int index) {
+        return strings[pluginIds[index]];
+    }
+
+    @Override
+    public String getEntryContextType(int index) {
+        return strings[contextTypes[index]];
+    }
+
+    @Override
+    public long getEntryTimeStamp(int index) {
+        return timeStamps[index];
+    }
+
+    @Override
+    public long getEntryExpireTime(int index) {
+        return expireTimes[index];
+    }
+
+    @Override
+    public String getEntryPayload(int index) {
+        return payloads[index];
+    }
+
+    @Override
+    public int getEntryFieldCount(int index) {
+        return fieldOffsets[index + 1] - fieldOffsets[index];
+    }
+
+    @Override
+    public String getEntryFieldName(int index, int field) {
+        return strings[fieldNames[fieldOffsets[index] + field]];
+    }
+
+    @Override
+    public double getEntryFieldValue(int index, int field) {
+        return fieldValues[fieldOffsets[index] + field];
+    }
+
+    @Override
+    public int getSkippedCount() {
+        return skippedPluginIds.length;
+    }
+
+    @Override
+    public String getSkippedPluginId(int index) {
+        return strings[skippedPluginIds[index]];
+    }
+
+    @Override
+    public String getSkippedContextType(int index) {
+        return strings[skippedContextTypes[index]];
+    }
+
+    @Override
+    public int getRemovedCount() {
+        return removedPluginIds.length;
+    }
+
+    @Override
+    public String getRemovedPluginId(int index) {
+        return strings[removedPluginIds[index]];
+    }
+
+    @Override
+    public String getRemovedContextType(int index) {
+        return strings[removedContextTypes[index]];
+    }
+
+    /**
+     * Returns the binary layout of this snapshot. The array is shared and must not be modified.
+     */
+    byte[] getEncoded() {
+        return encoded;
+    }
+
+    private static int intern(Map<String, Integer> ids, String value) {
+        Integer id = ids.get(value);
+        if (id == null) {
+            id = ids.size();
+            ids.put(value, id);
+        }
+        return id;
+    }
+
+    // Arrays.copyOf is not available on the oldest platform versions Dynamix supports
+    private static int[] copyOf(int[] array, int length) {
+        int[] copy = new int[length];
+        System.arraycopy(array, 0, copy, 0, Math.min(length, array.length));
+        return copy;
+    }
+
+    private static double[] copyOf(double[] array, int length) {
+        double[] copy = new double[length];
+        System.arraycopy(array, 0, copy, 0, Math.min(length, array.length));
+        return copy;
+    }
+
+    /*
+     * Renders the snapshot as a JSON object. The content hash is a string, since JSON numbers cannot hold every long.
+     */
+    private String toJson() {
+        StringBuilder out = new StringBuilder(64 + payloads.length * 96);
+        out.append("{\"version\":").append(version).append(",\"delta\":").append(delta)
+                .append(",\"notModified\":").append(notModified).append(",\"contentHash\":\"")
+                .append(Long.toHexString(contentHash)).append("\",\"entries\":[");
+        for (int i = 0; i < payloads.length; i++) {
+            if (i > 0)
+                out.append(',');
+            out.append("{\"pluginId\":");
+            appendJson(out, strings[pluginIds[i]]);
+            out.append(",\"contextType\":");
+            appendJson(out, strings[contextTypes[i]]);
+            out.append(",\"timeStamp\":").append(timeStamps[i]).append(",\"expireTime\":").append(expireTimes[i])
+                    .append(",\"payload\":");
+            appendJson(out, payloads[i]);
+            out.append(",\"fields\":{");
+            for (int f = fieldOffsets[i]; f < fieldOffsets[i + 1]; f++) {
+                if (f > fieldOffsets[i])
+                    out.append(',');
+                appendJson(out, strings[fieldNames[f]]);
+                out.append(':');
+                double value = fieldValues[f];
+                // JSON has no NaN or infinity
+                if (Double.isNaN(value) || Double.isInfinite(value))
+                    out.append("null");
+                else
+                    out.append(value);
+            }
+            out.append("}}");
+        }
+        out.append("],\"skipped\":");
+        appendSources(out, skippedPluginIds, skippedContextTypes);
+        out.append(",\"removed\":");
+        appendSources(out, removedPluginIds, removedContextTypes);
+        return out.append('}').toString();
+    }
+
+    private void appendSources(StringBuilder out, int[] sourcePluginIds, int[] sourceContextTypes) {
+        out.append('[');
+        for (int i = 0; i < sourcePluginIds.length; i++) {
+            if (i > 0)
+                out.append(',');
+            out.append("{\"pluginId\":");
+            appendJson(out, strings[sourcePluginIds[i]]);
+            out.append(",\"contextType\":");
+            appendJson(out, strings[sourceContextTypes[i]]);
+            out.append('}');
+        }
+        out.append(']');
+    }
+
+    private static void appendJson(StringBuilder out, String value) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20)
+                        out.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xf]);
+                    else
+                        out.append(c);
+            }
+        }
+        out.append('"');
+    }
+
+    private byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + payloads.length * 48);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(FORMAT_VERSION);
+            out.writeLong(version);
+            out.writeBoolean(delta);
+            out.writeInt(strings.length);
+            for (String string : strings)
+                out.writeUTF(string);
+            out.writeInt(payloads.length);
+            for (int i = 0; i < payloads.length; i++) {
+                out.writeInt(pluginIds[i]);
+                out.writeInt(contextTypes[i]);
+                out.writeLong(timeStamps[i]);
+                out.writeLong(expireTimes[i]);
+                byte[] payload = payloads[i].getBytes(UTF8);
+                out.writeInt(payload.length);
+                out.write(payload);
+                out.writeInt(fieldOffsets[i + 1] - fieldOffsets[i]);
+                for (int f = fieldOffsets[i]; f < fieldOffsets[i + 1]; f++) {
+                    out.writeInt(fieldNames[f]);
+                    out.writeDouble(fieldValues[f]);
+                }
+            }
+            out.writeInt(skippedPluginIds.length);
+            for (int i = 0; i < skippedPluginIds.length; i++) {
+                out.writeInt(skippedPluginIds[i]);
+                out.writeInt(skippedContextTypes[i]);
+            }
+            out.writeInt(removedPluginIds.length);
+            for (int i = 0; i < removedPluginIds.length; i++) {
+                out.writeInt(removedPluginIds[i]);
+                out.writeInt(removedContextTypes[i]);
+            }
+            out.writeLong(contentHash);
+            out.writeBoolean(notModified);
+            out.flush();
+        } catch (UnsupportedEncodingException e) {
+            // Every platform supports UTF-8
+            throw new IllegalStateException(e);
+        } catch (IOException e) {
+            // Writing to a ByteArrayOutputStream does not fail
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private void decode() {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded));
+        try {
+            byte format = in.readByte();
+            if (format != FORMAT_VERSION)
+                throw new IllegalArgumentException("Unsupported snapshot format " + format);
+            version = in.readLong();
+            delta = in.readBoolean();
+            strings = new String[in.readInt()];
+            for (int i = 0; i < strings.length; i++)
+                strings[i] = in.readUTF();
+            int count = in.readInt();
+            pluginIds = new int[count];
+            contextTypes = new int[count];
+            timeStamps = new long[count];
+            expireTimes = new long[count];
+            payloads = new String[count];
+            fieldOffsets = new int[count + 1];
+            int[] names = new int[16];
+            double[] values = new double[16];
+            int field = 0;
+            for (int i = 0; i < count; i++) {
+                pluginIds[i] = in.readInt();
+                contextTypes[i] = in.readInt();
+                timeStamps[i] = in.readLong();
+                expireTimes[i] = in.readLong();
+                byte[] payload = new byte[in.readInt()];
+                in.readFully(payload);
+                payloads[i] = new String(payload, UTF8);
+                fieldOffsets[i] = field;
+                int fieldCount = in.readInt();
+                if (field + fieldCount > names.length) {
+                    int capacity = Math.max(names.length * 2, field + fieldCount);
+                    names = copyOf(names, capacity);
+                    values = copyOf(values, capacity);
+                }
+                for (int f = 0; f < fieldCount; f++, field++) {
+                    names[field] = in.readInt();
+                    values[field] = in.readDouble();
+                }
+            }
+            fieldOffsets[count] = field;
+            fieldNames = copyOf(names, field);
+            fieldValues = copyOf(values, field);
+            int skipped = in.readInt();
+            skippedPluginIds = new int[skipped];
+            skippedContextTypes = new int[skipped];
+            for (int i = 0; i < skipped; i++) {
+                skippedPluginIds[i] = in.readInt();
+                skippedContextTypes[i] = in.readInt();
+            }
+            int removed = in.readInt();
+            removedPluginIds = new int[removed];
+            removedContextTypes = new int[removed];
+            for (int i = 0; i < removed; i++) {
+                removedPluginIds[i] = in.readInt();
+                removedContextTypes[i] = in.readInt();
+            }
+            contentHash = in.readLong();
+            notModified = in.readBoolean();
+        } catch (UnsupportedEncodingException e) {
+            // Every platform supports UTF-8
+            throw new IllegalStateException(e);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Malformed snapshot", e);
+        }
+    }
+}
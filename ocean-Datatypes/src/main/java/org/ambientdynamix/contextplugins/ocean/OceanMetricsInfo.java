@@ -0,0 +1,370 @@
+/*
+ * Copyright (C) The Ambient Dynamix Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.ocean;
+
+import java.util.Collections;
+import java.util.Set;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * A copy of ocean's runtime metrics, answered for the METRICS context type. Per-source values are held column-wise,
+ * one array per metric.
+ */
+class OceanMetricsInfo implements IOceanMetricsInfo {
+    /**
+     * Required CREATOR field that generates instances of this Parcelable class from a Parcel.
+     *
+     * @see //http://developer.android.com/reference/android/os/Parcelable.Creator.html
+     */
+    public static Parcelable.Creator<OceanMetricsInfo> CREATOR = new Parcelable.Creator<OceanMetricsInfo>() {
+        public OceanMetricsInfo createFromParcel(Parcel in) {
+            return new OceanMetricsInfo(in);
+        }
+
+        public OceanMetricsInfo[] newArray(int size) {
+            return new OceanMetricsInfo[size];
+        }
+    };
+    // Public static variable for our supported context type
+    public static String CONTEXT_TYPE = "org.ambientdynamix.contextplugins.ocean.metrics";
+    private static final Set<String> FORMATS = Collections.singleton("text/plain");
+    private String[] pluginIds;
+    private String[] contextTypes;
+    private long[] requests;
+    private long[] successes;
+    private long[] failures;
+    private long[] pushes;
+    private double[] pushRates;
+    private long[] latencyP50;
+    private long[] latencyP90;
+    private long[] latencyP99;
+    private long[] latencyMax;
+    private long snapshots;
+    private long timedOutSnapshots;
+    private long cacheHits;
+    private long cacheMisses;
+    private long cacheEvictions;
+    private int registered;
+    private int registrationFailures;
+    private long registrationTime = -1;
+    private long timeToFirstSnapshot = -1;
+    private long restarts;
+    private long warmRestarts;
+    private long restartToFirstSnapshot = -1;
+
+    @Override
+    public String getContextType() {
+        return CONTEXT_TYPE;
+    }
+
+    @Override
+    public String getImplementingClassname() {
+        return this.getClass().getName();
+    }
+
+    @Override
+    public Set<String> getStringRepresentationFormats() {
+        return FORMATS;
+    }
+
+    @Override
+    public String getStringRepresentation(String format) {
+        if (!format.equalsIgnoreCase("text/plain"))
+            return "";
+        StringBuilder text = new StringBuilder();
+        text.append("Ocean Metrics: snapshots=").append(snapshots).append(" timedOut=").append(timedOutSnapshots)
+                .append(" cacheHits=").append(cacheHits).append(" cacheMisses=").append(cacheMisses)
+                .append(" cacheEvictions=").append(cacheEvictions).append(" registered=").append(registered)
+                .append(" registrationFailures=").append(registrationFailures).append(" registrationTime=")
+                .append(registrationTime).append(" timeToFirstSnapshot=").append(timeToFirstSnapshot)
+                .append(" restarts=").append(restarts).append(" warmRestarts=").append(warmRestarts)
+                .append(" restartToFirstSnapshot=").append(restartToFirstSnapshot).append('\n');
+        for (int i = 0; i < pluginIds.length; i++) {
+            text.append(pluginIds[i]).append(' ').append(contextTypes[i]).append(": requests=").append(requests[i])
+                    .append(" successes=").append(successes[i]).append(" failures=").append(failures[i])
+                    .append(" pushes=").append(pushes[i]).append(" pushRate=").append(pushRates[i])
+                    .append(" p50=").append(latencyP50[i]).append(" p90=").append(latencyP90[i])
+                    .append(" p99=").append(latencyP99[i]).append(" max=").append(latencyMax[i]).append('\n');
+        }
+        return text.toString();
+    }
+
+    /**
+     * Create an OceanMetricsInfo; the per-source values are filled in with setSource.
+     *
+     * @param sourceCount       The number of sources
+     * @param snapshots         The number of snapshot rounds completed
+     * @param timedOutSnapshots The number of snapshot rounds completed by their deadline
+     * @param cacheHits         The result cache hits
+     * @param cacheMisses       The result cache misses
+     * @param cacheEvictions    The result cache evictions
+     */
+    public OceanMetricsInfo(int sourceCount, long snapshots, long timedOutSnapshots, long cacheHits,
+                            long cacheMisses, long cacheEvictions) {
+        this.snapshots = snapshots;
+        this.timedOutSnapshots = timedOutSnapshots;
+        this.cacheHits = cacheHits;
+        this.cacheMisses = cacheMisses;
+        this.cacheEvictions = cacheEvictions;
+        pluginIds = new String[sourceCount];
+        contextTypes = new String[sourceCount];
+        requests = new long[sourceCount];
+        successes = new long[sourceCount];
+        failures = new long[sourceCount];
+        pushes = new long[sourceCount];
+        pushRates = new double[sourceCount];
+        latencyP50 = new long[sourceCount];
+        latencyP90 = new long[sourceCount];
+        latencyP99 = new long[sourceCount];
+        latencyMax = new long[sourceCount];
+    }
+
+    /**
+     * Sets the values of the source at the given index.
+     */
+    void setSource(int index, String pluginId, String contextType, long requests, long successes, long failures,
+                   long pushes, double pushRate, long p50, long p90, long p99, long max) {
+        this.pluginIds[index] = pluginId;
+        this.contextTypes[index] = contextType;
+        this.requests[index] = requests;
+        this.successes[index] = successes;
+        this.failures[index] = failures;
+        this.pushes[index] = pushes;
+        this.pushRates[index] = pushRate;
+        this.latencyP50[index] = p50;
+        this.latencyP90[index] = p90;
+        this.latencyP99[index] = p99;
+        this.latencyMax[index] = max;
+    }
+
+    /**
+     * Sets the startup values.
+     *
+     * @param registered           The number of sources registered in time
+     * @param registrationFailures The number of sources whose registration failed or timed out
+     * @param registrationTime     The time (ms) until every registration had ended, or -1
+     * @param timeToFirstSnapshot  The time (ms) until the first non-empty snapshot was sent, or -1
+     */
+    void setStartup(int registered, int registrationFailures, long registrationTime, long timeToFirstSnapshot) {
+        this.registered = registered;
+        this.registrationFailures = registrationFailures;
+        this.registrationTime = registrationTime;
+        this.timeToFirstSnapshot = timeToFirstSnapshot;
+    }
+
+    /**
+     * Sets the restart values.
+     *
+     * @param restarts               The number of starts after a stop
+     * @param warmRestarts           The number of those that kept the session, handler and routes
+     * @param restartToFirstSnapshot The time (ms) from the last restart until the first non-empty snapshot, or -1
+     */
+    void setRestarts(long restarts, long warmRestarts, long restartToFirstSnapshot) {
+        this.restarts = restarts;
+        this.warmRestarts = warmRestarts;
+        this.restartToFirstSnapshot = restartToFirstSnapshot;
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName();
+    }
+
+    /**
+     * Used by Parcelable when sending (serializing) data over IPC.
+     */
+    public void writeToParcel(Parcel out, int flags) {
+        out.writeStringArray(pluginIds);
+        out.writeStringArray(contextTypes);
+        out.writeLongArray(requests);
+        out.writeLongArray(successes);
+        out.writeLongArray(failures);
+        out.writeLongArray(pushes);
+        out.writeDoubleArray(pushRates);
+        out.writeLongArray(latencyP50);
+        out.writeLongArray(latencyP90);
+        out.writeLongArray(latencyP99);
+        out.writeLongArray(latencyMax);
+        out.writeLong(snapshots);
+        out.writeLong(timedOutSnapshots);
+        out.writeLong(cacheHits);
+        out.writeLong(cacheMisses);
+        out.writeLong(cacheEvictions);
+        out.writeInt(registered);
+        out.writeInt(registrationFailures);
+        out.writeLong(registrationTime);
+        out.writeLong(timeToFirstSnapshot);
+        out.writeLong(restarts);
+        out.writeLong(warmRestarts);
+        out.writeLong(restartToFirstSnapshot);
+    }
+
+    /**
+     * Used by the Parcelable.Creator when reconstructing (deserializing) data sent over IPC.
+     */
+    private OceanMetricsInfo(final Parcel in) {
+        pluginIds = in.createStringArray();
+        contextTypes = in.createStringArray();
+        requests = in.createLongArray();
+        successes = in.createLongArray();
+        failures = in.createLongArray();
+        pushes = in.createLongArray();
+        pushRates = in.createDoubleArray();
+        latencyP50 = in.createLongArray();
+        latencyP90 = in.createLongArray();
+        latencyP99 = in.createLongArray();
+        latencyMax = in.createLongArray();
+        snapshots = in.readLong();
+        timedOutSnapshots = in.readLong();
+        cacheHits = in.readLong();
+        cacheMisses = in.readLong();
+        cacheEvictions = in.readLong();
+        registered = in.readInt();
+        registrationFailures = in.readInt();
+        registrationTime = in.readLong();
+        timeToFirstSnapshot = in.readLong();
+        restarts = in.readLong();
+        warmRestarts = in.readLong();
+        restartToFirstSnapshot = in.readLong();
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public int getSourceCount() {
+        return pluginIds.length;
+    }
+
+    @Override
+    public String getSourcePluginId(int index) {
+        return pluginIds[index];
+    }
+
+    @Override
+    public String getSourceContextType(int index) {
+        return contextTypes[index];
+    }
+
+    @Override
+    public long getRequestCount(int index) {
+        return requests[index];
+    }
+
+    @Override
+    public long getSuccessCount(int index) {
+        return successes[index];
+    }
+
+    @Override
+    public long getFailureCount(int index) {
+        return failures[index];
+    }
+
+    @Override
+    public long getPushCount(int index) {
+        return pushes[index];
+    }
+
+    @Override
+    public double getPushRate(int index) {
+        return pushRates[index];
+    }
+
+    @Override
+    public long getLatencyP50(int index) {
+        return latencyP50[index];
+    }
+
+    @Override
+    public long getLatencyP90(int index) {
+        return latencyP90[index];
+    }
+
+    @Override
+    public long getLatencyP99(int index) {
+        return latencyP99[index];
+    }
+
+    @Override
+    public long getLatencyMax(int index) {
+        return latencyMax[index];
+    }
+
+    @Override
+    public long getSnapshotCount() {
+        return snapshots;
+    }
+
+    @Override
+    public long getTimedOutSnapshotCount() {
+        return timedOutSnapshots;
+    }
+
+    @Override
+    public long getCacheHitCount() {
+        return cacheHits;
+    }
+
+    @Override
+    public long getCacheMissCount() {
+        return cacheMisses;
+    }
+
+    @Override
+    public long getCacheEvictionCount() {
+        return cacheEvictions;
+    }
+
+    @Override
+    public int getRegisteredCount() {
+        return registered;
+    }
+
+    @Override
+    public int getRegistrationFailureCount() {
+        return registrationFailures;
+    }
+
+    @Override
+    public long getRegistrationTime() {
+        return registrationTime;
+    }
+
+    @Override
+    public long getTimeToFirstSnapshot() {
+        return timeToFirstSnapshot;
+    }
+
+    @Override
+    public long getRestartCount() {
+        return restarts;
+    }
+
+    @Override
+    public long getWarmRestartCount() {
+        return warmRestarts;
+    }
+
+    @Override
+    public long getRestartToFirstSnapshot() {
+        return restartToFirstSnapshot;
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) The Ambient Dynamix Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.ocean;
+
+/**
+ * One per-source entry of a context snapshot: the latest result of one context type of one plugin, as text and, for
+ * context types ocean knows how to decode, as named numeric fields.
+ *
+ * @author Nirandika Wanigasekara
+ */
+public final class SnapShotEntry {
+    private final String pluginId;
+    private final String contextType;
+    private final long timeStamp;
+    private final long expireTime;
+    private final String payload;
+    private final String[] fieldNames;
+    private final double[] fieldValues;
+    // Computed on first use unless given; volatile, as a plain long may be written in two halves on 32-bit VMs
+    private volatile long contentHash;
+
+    /**
+     * Create a SnapShotEntry
+     *
+     * @param pluginId    The plugin that produced the result
+     * @param contextType The context type of the result
+     * @param timeStamp   The time the result was produced (ms since epoch)
+     * @param expireTime  The time the result expires (ms since epoch) or 0 if it does not expire
+     * @param payload     The text/plain representation of the result
+     */
+    public SnapShotEntry(String pluginId, String contextType, long timeStamp, long expireTime, String payload) {
+        this(pluginId, contextType, timeStamp, expireTime, payload, new String[0], new double[0]);
+    }
+
+    /**
+     * Create a SnapShotEntry with decoded fields
+     *
+     * @param fieldNames  The names of the decoded fields
+     * @param fieldValues The values of the decoded fields, in the order of fieldNames
+     */
+    public SnapShotEntry(String pluginId, String contextType, long timeStamp, long expireTime, String payload,
+                         String[] fieldNames, double[] fieldValues) {
+        if (fieldNames.length != fieldValues.length)
+            throw new IllegalArgumentException("Field names and values differ in length");
+        this.fieldNames = fieldNames;
+        this.fieldValues = fieldValues;
+        this.pluginId = pluginId;
+        this.contextType = contextType;
+        this.timeStamp = timeStamp;
+        this.expireTime = expireTime;
+        this.payload = payload;
+    }
+
+    /**
+     * Create a SnapShotEntry whose content hash is already known
+     */
+    SnapShotEntry(String pluginId, String contextType, long timeStamp, long expireTime, String payload,
+                  String[] fieldNames, double[] fieldValues, long contentHash) {
+        this(pluginId, contextType, timeStamp, expireTime, payload, fieldNames, fieldValues);
+        this.contentHash = contentHash;
+    }
+
+    public String getPluginId() {
+        return pluginId;
+    }
+
+    public String getContextType() {
+        return contextType;
+    }
+
+    public long getTimeStamp() {
+        return timeStamp;
+    }
+
+    public long getExpireTime() {
+        return expireTime;
+    }
+
+    public String getPayload() {
+        return payload;
+    }
+
+    public int getFieldCount() {
+        return fieldNames.length;
+    }
+
+    public String getFieldName(int index) {
+        return fieldNames[index];
+    }
+
+    public double getFieldValue(int index) {
+        return fieldValues[index];
+    }
+
+    /**
+     * Returns the fingerprint of the entry's content: equal for entries reporting the same thing, whatever their
+     * time stamps.
+     */
+    public long getContentHash() {
+        long hash = contentHash;
+        if (hash == ContentHash.NONE) {
+            hash = ContentHash.of(pluginId, contextType, payload, fieldNames, fieldValues);
+            contentHash = hash;
+        }
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return pluginId + " " + contextType + ": " + payload;
+    }
+}
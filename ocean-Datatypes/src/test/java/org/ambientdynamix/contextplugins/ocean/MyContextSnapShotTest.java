@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) The Ambient Dynamix Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.ocean;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+/**
+ * Round trip of a snapshot through the binary layout it is parcelled as. Parcel itself only exists on a device, so
+ * the encoded bytes are decoded directly, as the Parcelable.Creator does with the byte array read from the Parcel.
+ *
+ * @author Nirandika Wanigasekara
+ */
+public class MyContextSnapShotTest {
+    // Non-ASCII text must survive the UTF-8 encoding
+    private static final String PAYLOAD = "caf\u00e9 \u2603 \u65e5\u672c";
+
+    @Test
+    public void fullSnapshotSurvivesTheRoundTrip() {
+        SnapShotEntry light = new SnapShotEntry("org.example.light", "org.example.lux", 1000, 5000, PAYLOAD,
+                new String[]{"lux", "accuracy"}, new double[]{412.5, -1});
+        SnapShotEntry battery = new SnapShotEntry("org.example.battery", "org.example.level", 2000, 0, "80%");
+        MyContextSnapShot snapShot = new MyContextSnapShot(Arrays.asList(light, battery),
+                new String[]{"org.example.gps"}, new String[]{"org.example.location"}, 42, false);
+
+        MyContextSnapShot copy = new MyContextSnapShot(snapShot.getEncoded());
+
+        assertEquals(42, copy.getVersion());
+        assertFalse(copy.isDelta());
+        assertFalse(copy.isNotModified());
+        assertEquals(snapShot.getContentHash(), copy.getContentHash());
+        assertEquals(2, copy.getEntryCount());
+        assertEquals("org.example.light", copy.getEntryPluginId(0));
+        assertEquals("org.example.lux", copy.getEntryContextType(0));
+        assertEquals(1000, copy.getEntryTimeStamp(0));
+        assertEquals(5000, copy.getEntryExpireTime(0));
+        assertEquals(PAYLOAD, copy.getEntryPayload(0));
+        assertEquals(2, copy.getEntryFieldCount(0));
+        assertEquals("accuracy", copy.getEntryFieldName(0, 1));
+        assertEquals(412.5, copy.getEntryFieldValue(0, 0), 0);
+        assertEquals(-1, copy.getEntryFieldValue(0, 1), 0);
+        assertEquals("80%", copy.getEntryPayload(1));
+        assertEquals(0, copy.getEntryExpireTime(1));
+        assertEquals(0, copy.getEntryFieldCount(1));
+        assertEquals(1, copy.getSkippedCount());
+        assertEquals("org.example.gps", copy.getSkippedPluginId(0));
+        assertEquals("org.example.location", copy.getSkippedContextType(0));
+        assertEquals(snapShot.getMyContextSnapShot(), copy.getMyContextSnapShot());
+        assertArrayEquals(snapShot.getEncoded(), copy.getEncoded());
+    }
+
+    @Test
+    public void deltaSnapshotKeepsItsRemovedSources() {
+        MyContextSnapShot snapShot = new MyContextSnapShot(
+                Collections.singletonList(new SnapShotEntry("org.example.light", "org.example.lux", 1, 0, "1")),
+                new String[0], new String[0], new String[]{"org.example.light"}, new String[]{"org.example.proximity"},
+                7);
+
+        MyContextSnapShot copy = new MyContextSnapShot(snapShot.getEncoded());
+
+        assertTrue(copy.isDelta());
+        assertEquals(7, copy.getVersion());
+        assertEquals(1, copy.getEntryCount());
+        assertEquals(1, copy.getRemovedCount());
+        assertEquals("org.example.light", copy.getRemovedPluginId(0));
+        assertEquals("org.example.proximity", copy.getRemovedContextType(0));
+    }
+
+    @Test
+    public void notModifiedSnapshotKeepsTheClientsHash() {
+        MyContextSnapShot snapShot = MyContextSnapShot.notModified(9, 0x1234567890abcdefL);
+
+        MyContextSnapShot copy = new MyContextSnapShot(snapShot.getEncoded());
+
+        assertTrue(copy.isNotModified());
+        assertEquals(9, copy.getVersion());
+        assertEquals(0x1234567890abcdefL, copy.getContentHash());
+        assertEquals(0, copy.getEntryCount());
+    }
+
+    @Test
+    public void equalContentHasEqualHashes() {
+        SnapShotEntry entry = new SnapShotEntry("org.example.light", "org.example.lux", 1, 0, PAYLOAD);
+        SnapShotEntry changed = new SnapShotEntry("org.example.light", "org.example.lux", 1, 0, PAYLOAD + "!");
+        long hash = new MyContextSnapShot(Collections.singletonList(entry), 1, false).getContentHash();
+        assertEquals(hash, new MyContextSnapShot(Collections.singletonList(entry), 2, false).getContentHash());
+        assertFalse(hash == new MyContextSnapShot(Collections.singletonList(changed), 1, false).getContentHash());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAnUnknownFormat() {
+        byte[] encoded = new MyContextSnapShot(Collections.<SnapShotEntry>emptyList(), 1, false).getEncoded();
+        encoded[0]++;
+        new MyContextSnapShot(encoded);
+    }
+}
@@ -34,7 +34,7 @@ public class BindDynamixActivity extends Activity {
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         pluginInvoker = new PluginInvoker();
-        if (PluginInvoker.AUTOMATIC_EXECUTION) {
+        if (PluginInvoker.AUTOMATIC_EXECUTION || PluginInvoker.LOAD_TEST) {
             setContentView(R.layout.main_auto);
             connect();
         } else {
@@ -76,42 +76,17 @@ public class BindDynamixActivity extends Activity {
         if (contextHandler != null) {
             try {
                 Log.i(TAG, "A1 - Requesting Programmatic Context Acquisitions");
-                for (PluginInvoker.PluginInvocation pluginInvocation : pluginInvoker.getPluginInvocations()) {
-                    if (pluginInvocation.getConfiguration() != null) {
-
-                        contextHandler.contextRequest(pluginInvocation.getPluginId(),
-                                pluginInvocation.getContextRequestType(), pluginInvocation.getConfiguration(), new IContextRequestCallback.Stub() {
-                            @Override
-                            public void onSuccess(ContextResult contextEvent) throws RemoteException {
-                                Log.i(TAG, "A1 - Request id was: " + contextEvent.getResponseId());
-                                contextListener.onContextResult(contextEvent);
-                            }
-
+                pluginInvoker.invokeAll(contextHandler, contextListener).addListener(
+                        new InvocationFuture.Listener<List<ContextResult>>() {
                             @Override
-                            public void onFailure(String s, int i) throws RemoteException {
-                                Log.w(TAG, "Call was unsuccessful! Message: " + s + " | Error code: "
-                                        + i);
-                            }
-
-                        });
-                    } else {
-                        contextHandler.contextRequest(pluginInvocation.getPluginId(),
-                                pluginInvocation.getContextRequestType(), new IContextRequestCallback.Stub() {
-                            @Override
-                            public void onSuccess(ContextResult contextEvent) throws RemoteException {
-                                Log.i(TAG, "A1 - Request id was: " + contextEvent.getResponseId());
-                                contextListener.onContextResult(contextEvent);
-                            }
-
-                            @Override
-                            public void onFailure(String s, int i) throws RemoteException {
-                                Log.w(TAG, "Call was unsuccessful! Message: " + s + " | Error code: "
-                                        + i);
+                            public void onComplete(InvocationFuture<List<ContextResult>> future) {
+                                try {
+                                    Log.i(TAG, "A1 - All " + future.get().size() + " invocations answered");
+                                } catch (Exception e) {
+                                    Log.w(TAG, "A1 - Not all invocations were answered: " + e);
+                                }
                             }
                         });
-                    }
-
-                }
             } catch (Exception e) {
                 Log.e(TAG, e.toString());
             }
@@ -119,6 +94,29 @@ public class BindDynamixActivity extends Activity {
             Log.w(TAG, "Dynamix not connected.");
     }
 
+    /**
+     * Runs the SnapshotLoadGenerator over the plugin invocations on a background thread and logs its report.
+     */
+    private void runLoadTest() {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Log.i(TAG, "Load test: " + PluginInvoker.LOAD_RATE + " requests/s, concurrency "
+                        + PluginInvoker.LOAD_CONCURRENCY + ", " + PluginInvoker.LOAD_DURATION + " ms");
+                try {
+                    SnapshotLoadGenerator.Report report = new SnapshotLoadGenerator(
+                            pluginInvoker.getPluginInvocations(), new DynamixRequestFacade(contextHandler),
+                            PluginInvoker.LOAD_RATE, PluginInvoker.LOAD_CONCURRENCY, PluginInvoker.LOAD_DURATION)
+                            .run(10000);
+                    Log.i(TAG, "Load test: " + report);
+                } catch (InterruptedException e) {
+                    Log.w(TAG, "Load test interrupted");
+                }
+                disconnect();
+            }
+        }, "ocean-load").start();
+    }
+
     private void disconnect() {
         initializing = false;
         if (contextHandler != null) {
@@ -163,6 +161,10 @@ public class BindDynamixActivity extends Activity {
                                 init(pluginInvoker, new Runnable() {
                                     @Override
                                     public void run() {
+                                        if (PluginInvoker.LOAD_TEST) {
+                                            runLoadTest();
+                                            return;
+                                        }
                                         try {
                                             registerForContextTypes();
                                         } catch (RemoteException e) {
@@ -231,16 +233,7 @@ public class BindDynamixActivity extends Activity {
                         "Event string-based format: " + format + " contained data: "
                                 + event.getStringRepresentation(format));
             }
-            boolean done = true;
-            for (PluginInvoker.PluginInvocation pluginInvocation : pluginInvoker.getPluginInvocations()) {
-                if (pluginInvocation.getContextRequestType().equals(event.getContextType())) {
-                    pluginInvocation.setSuccessfullyCalled(true);
-                    pluginInvoker.invokeOnResponse(event);
-
-                }
-                if (!pluginInvocation.isSuccessfullyCalled())
-                    done = false;
-            }
+            boolean done = pluginInvoker.onContextResult(event);
 
             if (done && PluginInvoker.AUTOMATIC_EXECUTION) {
                 disconnect();
@@ -0,0 +1,37 @@
+package org.ambientdynamix.contextplugins.ocean;
+
+import android.os.RemoteException;
+import org.ambientdynamix.api.application.*;
+
+/**
+ * Sends the SnapshotLoadGenerator's requests to ocean through a Dynamix ContextHandler.
+ */
+public class DynamixRequestFacade implements SnapshotLoadGenerator.RequestFacade {
+    private final ContextHandler contextHandler;
+
+    public DynamixRequestFacade(ContextHandler contextHandler) {
+        this.contextHandler = contextHandler;
+    }
+
+    @Override
+    public void request(PluginInvoker.PluginInvocation invocation, final SnapshotLoadGenerator.ResponseCallback callback)
+            throws RemoteException {
+        IContextRequestCallback.Stub requestCallback = new IContextRequestCallback.Stub() {
+            @Override
+            public void onSuccess(ContextResult contextEvent) throws RemoteException {
+                callback.onSuccess();
+            }
+
+            @Override
+            public void onFailure(String s, int i) throws RemoteException {
+                callback.onFailure(s + " | Error code: " + i);
+            }
+        };
+        if (invocation.getConfiguration() != null)
+            contextHandler.contextRequest(invocation.getPluginId(), invocation.getContextRequestType(),
+                    invocation.getConfiguration(), requestCallback);
+        else
+            contextHandler.contextRequest(invocation.getPluginId(), invocation.getContextRequestType(),
+                    requestCallback);
+    }
+}
@@ -0,0 +1,151 @@
+package org.ambientdynamix.contextplugins.ocean;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A Future completed by a callback, with listeners for composition (the platform's CompletableFuture is not available
+ * on the Android versions Dynamix supports). The first of complete, fail and cancel wins; later calls are ignored.
+ * Listeners added after completion run immediately on the adding thread, others on the completing thread.
+ */
+public class InvocationFuture<V> implements Future<V> {
+
+    /**
+     * Notified once when the future completes.
+     */
+    public interface Listener<V> {
+        void onComplete(InvocationFuture<V> future);
+    }
+
+    // Holds the outcome once done
+    private static final class Outcome<V> {
+        final V value;
+        final Throwable failure;
+        final boolean cancelled;
+
+        Outcome(V value, Throwable failure, boolean cancelled) {
+            this.value = value;
+            this.failure = failure;
+            this.cancelled = cancelled;
+        }
+    }
+
+    private final AtomicReference<Outcome<V>> outcome = new AtomicReference<Outcome<V>>();
+    private final CountDownLatch done = new CountDownLatch(1);
+    // Guarded by itself; null once the listeners have run
+    private List<Listener<V>> listeners = new ArrayList<Listener<V>>(1);
+
+    /**
+     * Returns a future completed with the values of all given futures, in their order, once every one of them has
+     * completed, or failed with the first failure.
+     */
+    public static <V> InvocationFuture<List<V>> allOf(final List<InvocationFuture<V>> futures) {
+        final InvocationFuture<List<V>> all = new InvocationFuture<List<V>>();
+        if (futures.isEmpty()) {
+            all.complete(new ArrayList<V>(0));
+            return all;
+        }
+        final AtomicInteger remaining = new AtomicInteger(futures.size());
+        Listener<V> listener = new Listener<V>() {
+            @Override
+            public void onComplete(InvocationFuture<V> future) {
+                Outcome<V> result = future.outcome.get();
+                if (result.failure != null || result.cancelled) {
+                    all.fail(result.cancelled ? new CancellationException() : result.failure);
+                } else if (remaining.decrementAndGet() == 0) {
+                    List<V> values = new ArrayList<V>(futures.size());
+                    for (InvocationFuture<V> each : futures)
+                        values.add(each.outcome.get().value);
+                    all.complete(values);
+                }
+            }
+        };
+        for (InvocationFuture<V> future : futures)
+            future.addListener(listener);
+        return all;
+    }
+
+    /**
+     * @return False if the future was already done
+     */
+    public boolean complete(V value) {
+        return finish(new Outcome<V>(value, null, false));
+    }
+
+    /**
+     * @return False if the future was already done
+     */
+    public boolean fail(Throwable failure) {
+        return finish(new Outcome<V>(null, failure, false));
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return finish(new Outcome<V>(null, null, true));
+    }
+
+    public void addListener(Listener<V> listener) {
+        synchronized (this) {
+            if (listeners != null) {
+                listeners.add(listener);
+                return;
+            }
+        }
+        listener.onComplete(this);
+    }
+
+    @Override
+    public boolean isCancelled() {
+        Outcome<V> result = outcome.get();
+        return result != null && result.cancelled;
+    }
+
+    @Override
+    public boolean isDone() {
+        return outcome.get() != null;
+    }
+
+    @Override
+    public V get() throws InterruptedException, ExecutionException {
+        done.await();
+        return getNow();
+    }
+
+    @Override
+    public V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!done.await(timeout, unit))
+            throw new TimeoutException();
+        return getNow();
+    }
+
+    private V getNow() throws ExecutionException {
+        Outcome<V> result = outcome.get();
+        if (result.cancelled)
+            throw new CancellationException();
+        if (result.failure != null)
+            throw new ExecutionException(result.failure);
+        return result.value;
+    }
+
+    private boolean finish(Outcome<V> result) {
+        if (!outcome.compareAndSet(null, result))
+            return false;
+        done.countDown();
+        List<Listener<V>> notified;
+        synchronized (this) {
+            notified = listeners;
+            listeners = null;
+        }
+        for (Listener<V> listener : notified)
+            listener.onComplete(this);
+        return true;
+    }
+}
@@ -1,10 +1,17 @@
 package org.ambientdynamix.contextplugins.ocean;
 
 import android.os.Bundle;
+import android.os.RemoteException;
 import android.util.Log;
 import org.ambientdynamix.api.application.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Vector;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
@@ -13,21 +20,37 @@ import java.util.Vector;
 public class PluginInvoker {
 
 
-    private List<PluginInvocation> pluginInvocations;
+    private final List<PluginInvocation> pluginInvocations = new ArrayList<PluginInvocation>();
+    // Invocations by requested context type, so that an event is matched without scanning every invocation. Only
+    // written by the constructor, read-only afterwards
+    private final Map<String, List<PluginInvocation>> invocationsByType = new HashMap<String, List<PluginInvocation>>();
+    // Number of invocations that have received a response
+    private final AtomicInteger answered = new AtomicInteger();
 
     /**
      * if this is set to true the BindDynamixActivity will not require any user interaction to run
      */
     public static final boolean AUTOMATIC_EXECUTION = false;
 
+    /**
+     * if this is set to true the BindDynamixActivity runs a SnapshotLoadGenerator over the plugin invocations once
+     * connected, instead of invoking each of them once
+     */
+    public static final boolean LOAD_TEST = false;
+
+    /**
+     * load test settings: requests started per second, largest number of outstanding requests and run time (ms)
+     */
+    public static final double LOAD_RATE = 50;
+    public static final int LOAD_CONCURRENCY = 8;
+    public static final long LOAD_DURATION = 60000;
+
     private String TAG = this.getClass().getSimpleName();
 
     /**
      * constructor of the PluginInvoker. Add plugin Invocations here
      */
     public PluginInvoker() {
-        pluginInvocations = new Vector<PluginInvocation>();
-
 //        Add plugin invocations by calling addPluginInvocation(pluginId,context type, configuration)
         addPluginInvocation("org.ambientdynamix.contextplugins.ocean","org.ambientdynamix.contextplugins.ocean.mycontextsnapshot",null);
 
@@ -35,7 +58,76 @@ public class PluginInvoker {
 
 
     public List<PluginInvocation> getPluginInvocations() {
-        return pluginInvocations;
+        return Collections.unmodifiableList(pluginInvocations);
+    }
+
+    /**
+     * Marks every invocation of the event's context type as successfully called and calls invokeOnResponse once.
+     * Only the invocations of that type are looked at. Their futures are left alone: those only complete with the
+     * response to their own request.
+     *
+     * @param event The received context event
+     * @return true if every invocation has now received a response
+     */
+    public boolean onContextResult(ContextResult event) {
+        List<PluginInvocation> matching = invocationsByType.get(event.getContextType());
+        if (matching != null) {
+            for (PluginInvocation pluginInvocation : matching)
+                pluginInvocation.setSuccessfullyCalled(true);
+            invokeOnResponse(event);
+        }
+        return isDone();
+    }
+
+    /**
+     * @return true if every invocation has received a response
+     */
+    public boolean isDone() {
+        return answered.get() == pluginInvocations.size();
+    }
+
+    /**
+     * Sends the context request of every invocation. Each call starts a new batch: every invocation counts as
+     * unanswered again and gets a fresh future, which completes with the response to its own request and fails if
+     * the request fails. Late responses to the requests of an earlier batch do not touch the new one.
+     *
+     * @param contextHandler The handler to send the requests through
+     * @param listener       Optional listener that also receives every successful response, can be null
+     * @return A future completing with the responses of all invocations, in invocation order
+     */
+    public InvocationFuture<List<ContextResult>> invokeAll(ContextHandler contextHandler, final ContextListener listener) {
+        List<InvocationFuture<ContextResult>> futures = new ArrayList<InvocationFuture<ContextResult>>(pluginInvocations.size());
+        for (final PluginInvocation pluginInvocation : pluginInvocations) {
+            final InvocationFuture<ContextResult> future = pluginInvocation.reset();
+            futures.add(future);
+            IContextRequestCallback callback = new IContextRequestCallback.Stub() {
+                @Override
+                public void onSuccess(ContextResult contextEvent) throws RemoteException {
+                    Log.i(TAG, "A1 - Request id was: " + contextEvent.getResponseId());
+                    pluginInvocation.complete(future, contextEvent);
+                    if (listener != null)
+                        listener.onContextResult(contextEvent);
+                }
+
+                @Override
+                public void onFailure(String s, int i) throws RemoteException {
+                    Log.w(TAG, "Call was unsuccessful! Message: " + s + " | Error code: " + i);
+                    future.fail(new Exception(s + " | Error code: " + i));
+                }
+            };
+            try {
+                if (pluginInvocation.getConfiguration() != null)
+                    contextHandler.contextRequest(pluginInvocation.getPluginId(),
+                            pluginInvocation.getContextRequestType(), pluginInvocation.getConfiguration(), callback);
+                else
+                    contextHandler.contextRequest(pluginInvocation.getPluginId(),
+                            pluginInvocation.getContextRequestType(), callback);
+            } catch (Exception e) {
+                Log.e(TAG, e.toString());
+                future.fail(e);
+            }
+        }
+        return InvocationFuture.allOf(futures);
     }
 
     /**
@@ -78,14 +170,23 @@ public class PluginInvoker {
      * @param configuration  optional configuration bundle, can be null
      */
     private void addPluginInvocation(String pluginId, String contextType, Bundle configuration) {
-        pluginInvocations.add(new PluginInvocation(pluginId,contextType,configuration));
+        PluginInvocation pluginInvocation = new PluginInvocation(pluginId, contextType, configuration);
+        pluginInvocations.add(pluginInvocation);
+        List<PluginInvocation> sameType = invocationsByType.get(contextType);
+        if (sameType == null) {
+            sameType = new ArrayList<PluginInvocation>(1);
+            invocationsByType.put(contextType, sameType);
+        }
+        sameType.add(pluginInvocation);
     }
 
     public class PluginInvocation {
         private String pluginId;
         private String contextRequestType;
         private Bundle configuration;
-        private boolean successfullyCalled;
+        private final AtomicBoolean successfullyCalled = new AtomicBoolean();
+        // The future of the current batch of requests, replaced by every invokeAll
+        private volatile InvocationFuture<ContextResult> future = new InvocationFuture<ContextResult>();
 
         public PluginInvocation(String pluginId, String contextRequestType, Bundle configuration) {
             this.pluginId = pluginId;
@@ -118,11 +219,38 @@ public class PluginInvoker {
         }
 
         public boolean isSuccessfullyCalled() {
-            return successfullyCalled;
+            return successfullyCalled.get();
         }
 
         public void setSuccessfullyCalled(boolean successfullyCalled) {
-            this.successfullyCalled = successfullyCalled;
+            if (successfullyCalled) {
+                if (this.successfullyCalled.compareAndSet(false, true))
+                    answered.incrementAndGet();
+            } else if (this.successfullyCalled.compareAndSet(true, false)) {
+                answered.decrementAndGet();
+            }
+        }
+
+        /**
+         * @return The future completing with the response to this invocation's request of the current batch
+         */
+        public InvocationFuture<ContextResult> getFuture() {
+            return future;
+        }
+
+        // Starts a new batch: the invocation counts as unanswered again and gets a fresh future
+        synchronized InvocationFuture<ContextResult> reset() {
+            setSuccessfullyCalled(false);
+            future = new InvocationFuture<ContextResult>();
+            return future;
+        }
+
+        // Completes the future of the batch with its response, counting the invocation as answered unless a later
+        // batch has started since
+        synchronized void complete(InvocationFuture<ContextResult> batch, ContextResult event) {
+            if (batch == future)
+                setSuccessfullyCalled(true);
+            batch.complete(event);
         }
     }
 
@@ -0,0 +1,204 @@
+package org.ambientdynamix.contextplugins.ocean;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Headless load driver for the snapshot API. Issues the PluginInvoker's invocations round-robin at a fixed, open-loop
+ * rate: request i is due at start + i / rate whether or not earlier requests have completed. At most concurrency
+ * requests are outstanding; a due request that finds no free slot waits for one, and its latency is still measured
+ * from the time it was due, so a slow ocean shows up as latency rather than as a lower request rate.
+ * <p/>
+ * Uses no Android classes beyond the types PluginInvoker refers to, so it runs on a device against a
+ * DynamixRequestFacade as well as on a plain JVM, where ocean-Bench drives ocean's SnapshotEngine with it (see
+ * SnapshotSoak there).
+ */
+public class SnapshotLoadGenerator {
+
+    /**
+     * Sends one request for an invocation.
+     */
+    public interface RequestFacade {
+        void request(PluginInvoker.PluginInvocation invocation, ResponseCallback callback) throws Exception;
+    }
+
+    /**
+     * Receives the outcome of one request. Exactly one of the methods must be called, from any thread.
+     */
+    public interface ResponseCallback {
+        void onSuccess();
+
+        void onFailure(String message);
+    }
+
+    private final List<PluginInvoker.PluginInvocation> invocations;
+    private final RequestFacade facade;
+    private final double rate;
+    private final int concurrency;
+    private final long duration;
+
+    /**
+     * @param invocations The invocations to issue, round-robin
+     * @param facade      Sends the requests
+     * @param rate        The requests started per second
+     * @param concurrency The largest number of requests outstanding at a time
+     * @param duration    The time (ms) requests are started for
+     */
+    public SnapshotLoadGenerator(List<PluginInvoker.PluginInvocation> invocations, RequestFacade facade, double rate,
+                                 int concurrency, long duration) {
+        if (invocations.isEmpty())
+            throw new IllegalArgumentException("No invocations");
+        this.invocations = invocations;
+        this.facade = facade;
+        this.rate = rate;
+        this.concurrency = Math.max(1, concurrency);
+        this.duration = duration;
+    }
+
+    /**
+     * Runs the load on the calling thread and waits up to drainTimeout (ms) for the outstanding requests. Requests
+     * that complete after that are not counted: the run ends under the same lock the callbacks record under, so the
+     * report only holds outcomes recorded before it. A due request waits for a free slot no longer than the rest of
+     * the run plus drainTimeout, since a slot is only freed by a response that may never come; if none is freed by
+     * then, the run ends and the requests not yet started count as incomplete.
+     */
+    public Report run(long drainTimeout) throws InterruptedException {
+        long interval = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        int total = (int) Math.max(1, duration * rate / 1000);
+        final long[] latencies = new long[total];
+        final int[] recorded = new int[1];
+        final long[] failures = new long[1];
+        // Guards latencies, recorded, failures and ended
+        final Object results = new Object();
+        final boolean[] ended = new boolean[1];
+        final Semaphore slots = new Semaphore(concurrency);
+        final CountDownLatch outstanding = new CountDownLatch(total);
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(duration + drainTimeout);
+        boolean stalled = false;
+        for (int i = 0; i < total; i++) {
+            final long due = start + i * interval;
+            long wait = due - System.nanoTime();
+            if (wait > 0)
+                TimeUnit.NANOSECONDS.sleep(wait);
+            if (!slots.tryAcquire(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                stalled = true;
+                break;
+            }
+            final AtomicInteger answered = new AtomicInteger();
+            ResponseCallback callback = new ResponseCallback() {
+                @Override
+                public void onSuccess() {
+                    if (answered.getAndIncrement() != 0)
+                        return;
+                    long latency = System.nanoTime() - due;
+                    synchronized (results) {
+                        if (ended[0])
+                            return;
+                        latencies[recorded[0]++] = latency;
+                    }
+                    slots.release();
+                    outstanding.countDown();
+                }
+
+                @Override
+                public void onFailure(String message) {
+                    if (answered.getAndIncrement() != 0)
+                        return;
+                    synchronized (results) {
+                        if (ended[0])
+                            return;
+                        failures[0]++;
+                    }
+                    slots.release();
+                    outstanding.countDown();
+                }
+            };
+            try {
+                facade.request(invocations.get(i % invocations.size()), callback);
+            } catch (Exception e) {
+                callback.onFailure(e.toString());
+            }
+        }
+        if (!stalled)
+            outstanding.await(drainTimeout, TimeUnit.MILLISECONDS);
+        long elapsed = System.nanoTime() - start;
+        long[] sorted;
+        long failed;
+        synchronized (results) {
+            ended[0] = true;
+            sorted = new long[recorded[0]];
+            System.arraycopy(latencies, 0, sorted, 0, sorted.length);
+            failed = failures[0];
+        }
+        Arrays.sort(sorted);
+        return new Report(total, sorted, failed, elapsed);
+    }
+
+    /**
+     * Throughput and latency percentiles of one run. Latencies are measured from the time each request was due.
+     */
+    public static class Report {
+        private final int requests;
+        private final long[] latencies;
+        private final long failures;
+        private final long elapsed;
+
+        Report(int requests, long[] sortedLatencies, long failures, long elapsed) {
+            this.requests = requests;
+            this.latencies = sortedLatencies;
+            this.failures = failures;
+            this.elapsed = elapsed;
+        }
+
+        public int getRequestCount() {
+            return requests;
+        }
+
+        public int getSuccessCount() {
+            return latencies.length;
+        }
+
+        public long getFailureCount() {
+            return failures;
+        }
+
+        /**
+         * Returns the number of requests that had not completed, or not even started, when the run ended.
+         */
+        public long getIncompleteCount() {
+            return requests - latencies.length - failures;
+        }
+
+        /**
+         * Returns the successful requests per second.
+         */
+        public double getThroughput() {
+            return latencies.length * 1e9 / elapsed;
+        }
+
+        /**
+         * Returns the latency (ms) the given percentage of the successful requests did not exceed.
+         */
+        public double getPercentile(double percent) {
+            if (latencies.length == 0)
+                return 0;
+            int index = (int) Math.ceil(percent / 100 * latencies.length) - 1;
+            return latencies[Math.max(0, Math.min(latencies.length - 1, index))] / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "requests=%d ok=%d failed=%d incomplete=%d elapsed=%.1fs throughput=%.1f/s "
+                            + "p50=%.2fms p99=%.2fms p999=%.2fms max=%.2fms",
+                    requests, latencies.length, failures, getIncompleteCount(), elapsed / 1e9, getThroughput(),
+                    getPercentile(50), getPercentile(99), getPercentile(99.9), getPercentile(100));
+        }
+    }
+}